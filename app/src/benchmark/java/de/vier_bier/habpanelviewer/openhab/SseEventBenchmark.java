@@ -0,0 +1,152 @@
+package de.vier_bier.habpanelviewer.openhab;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Micro benchmark comparing the streaming SSE event parser to parsing the event with JSONObject,
+ * as OpenhabSseConnection did before. Runs on the JVM only, use
+ * ./gradlew :app:testDebugUnitTest -Pbenchmark --tests '*Benchmark'
+ *
+ * Results are written to app/build/benchmark/sse.txt.
+ */
+public class SseEventBenchmark {
+    private static final int EVENTS = 256;
+    private static final long WARMUP_NANOS = 500_000_000L;
+    private static final long MEASURE_NANOS = 1_000_000_000L;
+
+    private final String[] mEvents = createEvents();
+    private final StringBuilder mResults = new StringBuilder();
+
+    // prevents the JIT from removing the parsing
+    private int mSink;
+
+    @Test
+    public void benchmark() throws IOException, JSONException {
+        final OpenhabEventParser parser = new OpenhabEventParser();
+
+        // both parsers must agree before comparing their speed
+        for (String event : mEvents) {
+            String[] expected = parseWithJsonObject(event);
+            parser.parse(event);
+            assertEquals(expected[0], parser.getName());
+            assertEquals(expected[1], parser.getValue());
+        }
+
+        double[] json = run("JSONObject", new Operation() {
+            @Override
+            public void run(int i) throws JSONException {
+                String[] result = parseWithJsonObject(mEvents[i % EVENTS]);
+                mSink += result[0].length() + result[1].length();
+            }
+        });
+        double[] streaming = run("OpenhabEventParser", new Operation() {
+            @Override
+            public void run(int i) {
+                parser.parse(mEvents[i % EVENTS]);
+                mSink += parser.getName().length() + parser.getValue().length();
+            }
+        });
+
+        String line = String.format(Locale.US, "speedup %.1fx, allocation reduced to %.0f%%",
+                streaming[0] / json[0], 100 * streaming[1] / json[1]);
+        mResults.append(line).append('\n');
+        System.out.println(line);
+
+        File dir = new File("build/benchmark");
+        if (dir.isDirectory() || dir.mkdirs()) {
+            try (PrintWriter out = new PrintWriter(new FileWriter(new File(dir, "sse.txt")))) {
+                out.print(mResults);
+            }
+        }
+    }
+
+    // the parsing done by OpenhabSseConnection.data before the streaming parser was introduced
+    private static String[] parseWithJsonObject(String data) throws JSONException {
+        JSONObject jObject = new JSONObject(data);
+        JSONObject payload = new JSONObject(jObject.getString("payload"));
+        String topic = jObject.getString("topic");
+        String name = topic.split("/")[2];
+        String value = payload.getString("value");
+
+        return new String[]{name, value};
+    }
+
+    /**
+     * @return events per second and bytes allocated per event
+     */
+    private double[] run(String name, Operation op) throws JSONException {
+        measure(op, WARMUP_NANOS);
+        double[] result = measure(op, MEASURE_NANOS);
+
+        String line = String.format(Locale.US, "%-24s %12.0f events/s %8.0f bytes/event", name, result[0], result[1]);
+        mResults.append(line).append('\n');
+        System.out.println(line);
+        return result;
+    }
+
+    private static double[] measure(Operation op, long duration) throws JSONException {
+        long startBytes = allocatedBytes();
+        long start = System.nanoTime();
+        long end = start + duration;
+        int count = 0;
+        long now;
+        do {
+            for (int i = 0; i < 100; i++) {
+                op.run(count++);
+            }
+            now = System.nanoTime();
+        } while (now < end);
+        long bytes = allocatedBytes() - startBytes;
+
+        return new double[]{count * 1e9 / (now - start), bytes / (double) count};
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    // a mix of events as sent by an openHAB 3 server
+    private static String[] createEvents() {
+        String[] events = new String[EVENTS];
+        for (int i = 0; i < EVENTS; i++) {
+            switch (i % 4) {
+                case 0:
+                    events[i] = "{\"topic\":\"openhab/items/Light_" + i + "/statechanged\",\"payload\":\"{\\\"type\\\":\\\"OnOff\\\",\\\"value\\\":\\\""
+                            + (i % 8 == 0 ? "ON" : "OFF") + "\\\",\\\"oldType\\\":\\\"OnOff\\\",\\\"oldValue\\\":\\\"OFF\\\"}\",\"type\":\"ItemStateChangedEvent\"}";
+                    break;
+                case 1:
+                    events[i] = "{\"topic\":\"openhab/items/Temperature_" + i + "/statechanged\",\"payload\":\"{\\\"type\\\":\\\"Quantity\\\",\\\"value\\\":\\\""
+                            + (20 + i % 7) + "." + i % 10 + " \\u00b0C\\\",\\\"oldType\\\":\\\"Quantity\\\",\\\"oldValue\\\":\\\"19.5 \\u00b0C\\\"}\",\"type\":\"ItemStateChangedEvent\"}";
+                    break;
+                case 2:
+                    events[i] = "{\"topic\":\"openhab/items/Group_" + i + "/Member_" + i + "/statechanged\",\"payload\":\"{\\\"type\\\":\\\"Decimal\\\",\\\"value\\\":\\\""
+                            + i + "\\\",\\\"oldType\\\":\\\"Decimal\\\",\\\"oldValue\\\":\\\"0\\\"}\",\"type\":\"GroupItemStateChangedEvent\"}";
+                    break;
+                default:
+                    events[i] = "{\"topic\":\"openhab/items/Text_" + i + "/statechanged\",\"payload\":\"{\\\"type\\\":\\\"String\\\",\\\"value\\\":\\\"Now playing: \\\\\\\"Song "
+                            + i + "\\\\\\\"\\\",\\\"oldType\\\":\\\"String\\\",\\\"oldValue\\\":\\\"\\\"}\",\"type\":\"ItemStateChangedEvent\"}";
+                    break;
+            }
+        }
+        return events;
+    }
+
+    private interface Operation {
+        void run(int i) throws JSONException;
+    }
+}
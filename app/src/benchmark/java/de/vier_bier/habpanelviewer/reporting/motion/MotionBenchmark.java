@@ -0,0 +1,218 @@
+package de.vier_bier.habpanelviewer.reporting.motion;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.BufferedReader;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Micro benchmark for the motion detection pipeline as run by MotionDetector: reading a camera
+ * image into the detection resolution, the darkness check and comparing the frame to the
+ * background model. Runs on the JVM only, use
+ * ./gradlew :app:testDebugUnitTest -Pbenchmark --tests '*Benchmark'
+ *
+ * Results are written to app/build/benchmark/motion.txt and compared to motion-baseline.txt,
+ * which holds the numbers measured before the pipeline was optimised. The allocated bytes are
+ * those left after JIT escape analysis, so temporary objects that do not escape, e.g. an empty
+ * result list, may not show up.
+ */
+public class MotionBenchmark {
+    // camera preview size, downscaled to every detection resolution
+    private static final int PREVIEW_WIDTH = 1280;
+    private static final int PREVIEW_HEIGHT = 720;
+    private static final int[][] RESOLUTIONS = {{640, 480}, {320, 240}, {160, 120}};
+    private static final int[] BOXES = {10, 20, 50};
+    // default detection granularity
+    private static final int DEFAULT_BOXES = 20;
+    private static final int LENIENCY = 20;
+    private static final int FRAMES = 16;
+    private static final long WARMUP_NANOS = 500_000_000L;
+    private static final long MEASURE_NANOS = 1_000_000_000L;
+    // results slower than this factor compared to the baseline are flagged
+    private static final double REGRESSION_FACTOR = 1.25;
+
+    private final Map<String, double[]> mBaseline = readBaseline();
+    private final StringBuilder mResults = new StringBuilder();
+
+    @Test
+    public void benchmark() throws IOException {
+        final byte[][] previews = createFrames(PREVIEW_WIDTH, PREVIEW_HEIGHT);
+
+        for (int[] res : RESOLUTIONS) {
+            final int w = res[0];
+            final int h = res[1];
+
+            // the preview has the detection resolution, no downscaling needed
+            final byte[][] frames = createFrames(w, h);
+            final LumaReader fullReader = new LumaReader(w, h, w, h);
+            run("LumaReader.readFull", w, h, 0, new Operation() {
+                @Override
+                public void run(int i) {
+                    fullReader.read(ByteBuffer.wrap(frames[i % FRAMES]), w, 1).release();
+                }
+            });
+
+            final LumaReader reader = new LumaReader(PREVIEW_WIDTH, PREVIEW_HEIGHT, w, h);
+            run("LumaReader.read", w, h, 0, new Operation() {
+                @Override
+                public void run(int i) {
+                    reader.read(ByteBuffer.wrap(previews[i % FRAMES]), PREVIEW_WIDTH, 1).release();
+                }
+            });
+
+            final LumaData[] lumas = new LumaData[FRAMES];
+            for (int i = 0; i < FRAMES; i++) {
+                lumas[i] = reader.read(ByteBuffer.wrap(previews[i]), PREVIEW_WIDTH, 1);
+            }
+
+            for (final int boxes : BOXES) {
+                // default settings, every frame is compared to the previous one
+                final Comparer comparer = new Comparer(w, h, boxes, LENIENCY, 1f, false, false);
+                run("Comparer.update", w, h, boxes, new Operation() {
+                    @Override
+                    public void run(int i) {
+                        comparer.update(lumas[i % FRAMES]);
+                    }
+                });
+
+                final Comparer adaptive = new Comparer(w, h, boxes, LENIENCY, 0.2f, true, true);
+                run("Comparer.adaptive", w, h, boxes, new Operation() {
+                    @Override
+                    public void run(int i) {
+                        adaptive.update(lumas[i % FRAMES]);
+                    }
+                });
+            }
+
+            for (LumaData l : lumas) {
+                l.release();
+            }
+
+            final Comparer comparer = new Comparer(w, h, DEFAULT_BOXES, LENIENCY, 1f, false, false);
+            run("frame", w, h, DEFAULT_BOXES, new Operation() {
+                @Override
+                public void run(int i) {
+                    LumaData l = reader.read(ByteBuffer.wrap(previews[i % FRAMES]), PREVIEW_WIDTH, 1);
+                    if (!l.isDarker(1000)) {
+                        comparer.update(l);
+                    }
+                    l.release();
+                }
+            });
+        }
+
+        File dir = new File("build/benchmark");
+        if (dir.isDirectory() || dir.mkdirs()) {
+            try (PrintWriter out = new PrintWriter(new FileWriter(new File(dir, "motion.txt")))) {
+                out.print(mResults);
+            }
+        }
+    }
+
+    private void run(String name, int width, int height, int boxes, Operation op) {
+        measure(op, WARMUP_NANOS);
+        double[] result = measure(op, MEASURE_NANOS);
+
+        String key = name + " " + width + "x" + height + " " + boxes;
+        String line = String.format(Locale.US, "%-36s %12.0f %12.0f", key, result[0], result[1]);
+        mResults.append(line).append('\n');
+
+        double[] baseline = mBaseline.get(key);
+        if (baseline != null) {
+            double ratio = result[0] / baseline[0];
+            line += String.format(Locale.US, "   %5.2fx baseline", ratio);
+            if (ratio > REGRESSION_FACTOR || result[1] > baseline[1] * REGRESSION_FACTOR + 16) {
+                line += "   REGRESSION";
+            }
+        }
+        System.out.println(line);
+    }
+
+    /**
+     * @return ns per frame and bytes allocated per frame
+     */
+    private static double[] measure(Operation op, long duration) {
+        long startBytes = allocatedBytes();
+        long start = System.nanoTime();
+        long end = start + duration;
+        int count = 0;
+        long now;
+        do {
+            for (int i = 0; i < 10; i++) {
+                op.run(count++);
+            }
+            now = System.nanoTime();
+        } while (now < end);
+        long bytes = allocatedBytes() - startBytes;
+
+        return new double[]{(now - start) / (double) count, bytes / (double) count};
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    private static byte[][] createFrames(int width, int height) {
+        Random r = new Random(width);
+        byte[][] frames = new byte[FRAMES][];
+
+        for (int f = 0; f < FRAMES; f++) {
+            // NV21: full resolution luma plane followed by interleaved chroma at quarter resolution
+            byte[] frame = new byte[width * height * 3 / 2];
+            r.nextBytes(frame);
+
+            // a dark block moving through the image
+            int bx = f * width / FRAMES;
+            for (int y = height / 4; y < height / 2; y++) {
+                for (int x = bx; x < Math.min(width, bx + width / 8); x++) {
+                    frame[y * width + x] = 16;
+                }
+            }
+            frames[f] = frame;
+        }
+        return frames;
+    }
+
+    private static Map<String, double[]> readBaseline() {
+        Map<String, double[]> baseline = new HashMap<>();
+
+        InputStream in = MotionBenchmark.class.getResourceAsStream("/motion-baseline.txt");
+        if (in == null) {
+            return baseline;
+        }
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.trim().split("\\s+");
+                if (parts.length == 5 && !line.startsWith("#")) {
+                    baseline.put(parts[0] + " " + parts[1] + " " + parts[2],
+                            new double[]{Double.parseDouble(parts[3]), Double.parseDouble(parts[4])});
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            System.out.println("could not read baseline: " + e.getMessage());
+        }
+
+        return baseline;
+    }
+
+    private interface Operation {
+        void run(int i);
+    }
+}
@@ -45,6 +45,13 @@ public final class Constants {
     public static final String PREF_SUFFIX_ITEM = "_item";
     public static final String PREF_SUFFIX_AVERAGE = "_average";
     public static final String PREF_SUFFIX_INTERVAL = "_intervall";
+    public static final String PREF_SUFFIX_AGGREGATOR = "_aggregator";
+    public static final String PREF_SUFFIX_DEADBAND = "_deadband";
+    public static final String PREF_SUFFIX_DEADBAND_RELATIVE = "_deadband_relative";
+    public static final String PREF_SUFFIX_MIN_INTERVAL = "_min_interval";
+    public static final String PREF_SUFFIX_MAX_INTERVAL = "_max_interval";
+    public static final String PREF_SUFFIX_SAMPLING_PERIOD = "_sampling_period";
+    public static final String PREF_SUFFIX_REPORT_LATENCY = "_report_latency";
     public static final String PREF_SUFFIX_SENSITIVITY = "_sensitivity";
 
     public static final String PREF_RESTART_ENABLED = "pref_restart_enabled";
@@ -73,6 +80,9 @@ public final class Constants {
     public static final String PREF_CMD_LOG_SIZE = "pref_command_log_size";
     public static final String PREF_SERVER_URL = "pref_server_url";
     public static final String PREF_OH_VERSION = "pref_openhab_version";
+    public static final String PREF_SSE_WILDCARD = "pref_sse_wildcard";
+    public static final String PREF_SSE_RECONNECT_MAX = "pref_sse_reconnect_max";
+    public static final String PREF_SSE_IDLE_TIMEOUT = "pref_sse_idle_timeout";
     public static final String PREF_DEVICE_ADMIN = "pref_device_admin";
     public static final String PREF_ALLOW_WEBRTC = "pref_allow_webrtc";
     public static final String PREF_SHOW_ON_LOCK_SCREEN = "pref_show_on_lock_screen";
@@ -99,6 +109,11 @@ public final class Constants {
     public static final String PREF_MOTION_DETECTION_GRANULARITY = "pref_motion_detection_granularity";
     public static final String PREF_MOTION_DETECTION_LENIENCY = "pref_motion_detection_leniency";
     public static final String PREF_MOTION_DETECTION_SLEEP = "pref_motion_detection_sleep";
+    public static final String PREF_MOTION_DETECTION_RESOLUTION = "pref_motion_detection_resolution";
+    public static final String PREF_MOTION_DETECTION_ADAPTION = "pref_motion_detection_adaption";
+    public static final String PREF_MOTION_DETECTION_NOISE = "pref_motion_detection_noise";
+    public static final String PREF_MOTION_DETECTION_ILLUMINATION = "pref_motion_detection_illumination";
+    public static final String PREF_MOTION_DETECTION_MASK = "pref_motion_detection_mask";
     public static final String PREF_CAMERA_FALLBACK = "pref_camera_fallback";
 
     public static final String PREF_CAPTURE_SCREEN_ENABLED = "pref_capture_screen_enabled";
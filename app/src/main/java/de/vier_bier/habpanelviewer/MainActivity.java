@@ -271,6 +271,7 @@ public class MainActivity extends ScreenControllingActivity
                 mMotionVisualizer = new MotionVisualizer(motionView, navigationView, prefs, mCam.getSensorOrientation(), scaledSize);
 
                 mMotionDetector = new MotionDetector(this, mCam, mMotionVisualizer, mServerConnection);
+                mMotionVisualizer.setOnMaskChangedListener(mask -> mMotionDetector.setMask(mask));
             }
         } else {
             Log.d(TAG, "no camera feature_front, hiding preview");
@@ -8,10 +8,11 @@ import org.greenrobot.eventbus.Subscribe;
 import org.greenrobot.eventbus.ThreadMode;
 
 import de.vier_bier.habpanelviewer.R;
+import de.vier_bier.habpanelviewer.openhab.SseConnection;
 import de.vier_bier.habpanelviewer.status.ApplicationStatus;
 
 /**
- * Holds information about online/offline times.
+ * Holds information about online/offline times, dead connections and HTTP connection reuse.
  */
 public class ConnectionStatistics {
     private final Context mCtx;
@@ -28,6 +29,9 @@ public class ConnectionStatistics {
     private long mOnlineMillis = 0;
     private long mOnlineMaxMillis = 0;
     private long mOnlineAverage = 0;
+    private long mStaleConnections = 0;
+    private long mStaleDetectionMillis = 0;
+    private long mStaleDetectionMaxMillis = 0;
 
     public ConnectionStatistics(Context context) {
         mCtx = context;
@@ -53,7 +57,19 @@ public class ConnectionStatistics {
                         toDuration(mOfflineMillis + currentOfflineTime),
                         (mOfflinePeriods + (mState == State.DISCONNECTED ? 1 : 0)),
                         toDuration(Math.max(currentOfflineTime, mOfflineMaxMillis)),
-                        toDuration(averageOfflineTime)));
+                        toDuration(averageOfflineTime))
+                        + "\n" + mCtx.getString(R.string.staleConnectionDetails,
+                        mStaleConnections,
+                        toDuration(mStaleConnections == 0 ? 0 : mStaleDetectionMillis / mStaleConnections),
+                        toDuration(mStaleDetectionMaxMillis)));
+
+        HttpMetrics metrics = OkHttpClientFactory.getInstance().getMetrics();
+        status.set(mCtx.getString(R.string.httpStatistics),
+                mCtx.getString(R.string.httpDetails,
+                        metrics.getCallCount(),
+                        metrics.getConnectCount(),
+                        metrics.getHandshakeCount(),
+                        metrics.getReusePercentage()));
     }
 
     private String toDuration(long durationMillis) {
@@ -99,6 +115,13 @@ public class ConnectionStatistics {
         return retVal.substring(0, retVal.length() - 1);
     }
 
+    @Subscribe(threadMode = ThreadMode.MAIN)
+    public synchronized void onMessageEvent(SseConnection.StaleConnectionEvent event) {
+        mStaleConnections++;
+        mStaleDetectionMillis += event.mIdleMillis;
+        mStaleDetectionMaxMillis = Math.max(mStaleDetectionMaxMillis, event.mIdleMillis);
+    }
+
     public synchronized void disconnected() {
         if (mState == State.CONNECTED) {
             mLastOfflineTime = System.currentTimeMillis();
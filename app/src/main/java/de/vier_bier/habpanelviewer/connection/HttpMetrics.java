@@ -0,0 +1,69 @@
+package de.vier_bier.habpanelviewer.connection;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+
+/**
+ * Counts requests, connections and TLS handshakes of the shared HTTP client, to show how well
+ * connections are reused.
+ */
+public class HttpMetrics extends EventListener {
+    private final AtomicLong mCalls = new AtomicLong();
+    private final AtomicLong mConnects = new AtomicLong();
+    private final AtomicLong mHandshakes = new AtomicLong();
+    private final AtomicLong mAcquired = new AtomicLong();
+
+    @Override
+    public void callStart(@NotNull Call call) {
+        mCalls.incrementAndGet();
+    }
+
+    @Override
+    public void connectStart(@NotNull Call call, @NotNull InetSocketAddress inetSocketAddress,
+                             @NotNull Proxy proxy) {
+        mConnects.incrementAndGet();
+    }
+
+    @Override
+    public void secureConnectEnd(@NotNull Call call, Handshake handshake) {
+        mHandshakes.incrementAndGet();
+    }
+
+    @Override
+    public void connectionAcquired(@NotNull Call call, @NotNull Connection connection) {
+        mAcquired.incrementAndGet();
+    }
+
+    public long getCallCount() {
+        return mCalls.get();
+    }
+
+    public long getConnectCount() {
+        return mConnects.get();
+    }
+
+    public long getHandshakeCount() {
+        return mHandshakes.get();
+    }
+
+    /**
+     * @return the percentage of requests that used an already open connection
+     */
+    public int getReusePercentage() {
+        long acquired = mAcquired.get();
+        if (acquired == 0) {
+            return 0;
+        }
+
+        long reused = Math.max(0, acquired - mConnects.get());
+        return (int) (reused * 100 / acquired);
+    }
+}
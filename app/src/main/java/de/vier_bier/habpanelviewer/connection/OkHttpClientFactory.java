@@ -15,10 +15,16 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 import javax.net.ssl.SSLException;
+import javax.net.ssl.X509TrustManager;
 
 import de.vier_bier.habpanelviewer.connection.ssl.CertificateManager;
 import okhttp3.OkHttpClient;
 
+/**
+ * Provides the HTTP client shared by all connections to the openHAB server, so connections and TLS
+ * sessions are pooled. The client is rebuilt when the credentials or the trusted certificates
+ * change.
+ */
 public class OkHttpClientFactory {
     private static OkHttpClientFactory ourInstance;
 
@@ -26,6 +32,11 @@ public class OkHttpClientFactory {
     private String mHost;
     private String mRealm;
 
+    private final HttpMetrics mMetrics = new HttpMetrics();
+    private OkHttpClient mClient;
+    // trust manager the client has been built with, replaced by the CertificateManager on changes
+    private X509TrustManager mClientTrustManager;
+
     public static synchronized OkHttpClientFactory getInstance() {
         if (ourInstance == null) {
             ourInstance = new OkHttpClientFactory();
@@ -33,11 +44,37 @@ public class OkHttpClientFactory {
         return ourInstance;
     }
 
-    public OkHttpClient create() {
-        OkHttpClient.Builder builder = new OkHttpClient.Builder().readTimeout(0, TimeUnit.SECONDS);
+    /**
+     * @return the shared client for requests
+     */
+    public synchronized OkHttpClient getClient() {
+        X509TrustManager trustManager = CertificateManager.getInstance().getTrustManager();
+        if (mClient == null || mClientTrustManager != trustManager) {
+            invalidate();
+
+            mClient = create(trustManager);
+            mClientTrustManager = trustManager;
+        }
+
+        return mClient;
+    }
+
+    /**
+     * @return a client without read timeout for event streams, sharing the connection pool of
+     * the shared client
+     */
+    public OkHttpClient getStreamingClient() {
+        return getClient().newBuilder().readTimeout(0, TimeUnit.SECONDS).build();
+    }
 
-        builder.sslSocketFactory(CertificateManager.getInstance().getSocketFactory(),
-                CertificateManager.getInstance().getTrustManager())
+    public HttpMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    private OkHttpClient create(X509TrustManager trustManager) {
+        OkHttpClient.Builder builder = new OkHttpClient.Builder().eventListener(mMetrics);
+
+        builder.sslSocketFactory(CertificateManager.getInstance().getSocketFactory(), trustManager)
                 .hostnameVerifier((s, session) -> {
                     try {
                         Certificate[] certificates = session.getPeerCertificates();
@@ -76,12 +113,22 @@ public class OkHttpClientFactory {
         return builder.build();
     }
 
-    public void setAuth(String user, String pass) {
+    public synchronized void setAuth(String user, String pass) {
         mCred = new Credentials(user, pass);
+        invalidate();
     }
 
-    public void removeAuth() {
+    public synchronized void removeAuth() {
         mCred = null;
+        invalidate();
+    }
+
+    // calls in progress complete on the old client, its idle connections are closed
+    private void invalidate() {
+        if (mClient != null) {
+            mClient.connectionPool().evictAll();
+            mClient = null;
+        }
     }
 
     public void setHost(String host) {
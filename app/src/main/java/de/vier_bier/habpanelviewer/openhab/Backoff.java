@@ -0,0 +1,51 @@
+package de.vier_bier.habpanelviewer.openhab;
+
+import java.util.Random;
+
+/**
+ * Exponential backoff with decorrelated jitter: every delay is chosen randomly between the base
+ * delay and three times the previous delay, limited by the cap. Clients that lost their
+ * connection at the same time (e.g. on a server restart) thereby spread their reconnects instead
+ * of retrying in lockstep.
+ */
+class Backoff {
+    private final long mBase;
+    private final Random mRandom;
+    private volatile long mCap;
+    private long mDelay;
+
+    Backoff(long base, long cap) {
+        this(base, cap, new Random());
+    }
+
+    Backoff(long base, long cap, Random random) {
+        mBase = base;
+        mCap = Math.max(base, cap);
+        mRandom = random;
+        mDelay = base;
+    }
+
+    void setCap(long cap) {
+        mCap = Math.max(mBase, cap);
+    }
+
+    long getCap() {
+        return mCap;
+    }
+
+    /**
+     * @return the time to wait before the next attempt in ms
+     */
+    synchronized long nextDelay() {
+        long upper = Math.min(mCap, mDelay * 3);
+        mDelay = mBase + (long) (mRandom.nextDouble() * (upper - mBase));
+        return mDelay;
+    }
+
+    /**
+     * Starts over with the base delay, to be called after a successful attempt.
+     */
+    synchronized void reset() {
+        mDelay = mBase;
+    }
+}
@@ -0,0 +1,166 @@
+package de.vier_bier.habpanelviewer.openhab;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Thread safe store for the item states received from the server, the states sent to the server
+ * and the item subscriptions.
+ *
+ * States are changed with compare-and-set semantics, so concurrent updates of an item can not both
+ * see it as changed. Listener lists are immutable and replaced on every change, so they can be
+ * iterated while other threads subscribe or unsubscribe.
+ */
+class ItemStateStore {
+    private final ConcurrentMap<String, String> mStates = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, String> mSentStates = new ConcurrentHashMap<>();
+
+    final Subscriptions mItemSubscriptions = new Subscriptions();
+    final Subscriptions mCmdSubscriptions = new Subscriptions();
+
+    String getState(String item) {
+        return mStates.get(item);
+    }
+
+    boolean hasState(String item) {
+        return mStates.containsKey(item);
+    }
+
+    /**
+     * @return whether the state of the item has changed
+     */
+    boolean setState(String item, String state) {
+        return compareAndSet(mStates, item, state);
+    }
+
+    void removeState(String item) {
+        mStates.remove(item);
+    }
+
+    void clearStates() {
+        mStates.clear();
+    }
+
+    /**
+     * Records the state as sent to the server.
+     *
+     * @return false if exactly this state has been sent last
+     */
+    boolean setSentState(String item, String state) {
+        return compareAndSet(mSentStates, item, state);
+    }
+
+    boolean isSentState(String item, String state) {
+        return state.equals(mSentStates.get(item));
+    }
+
+    /**
+     * @return a snapshot of the states sent last
+     */
+    Map<String, String> getSentStates() {
+        return new HashMap<>(mSentStates);
+    }
+
+    private static boolean compareAndSet(ConcurrentMap<String, String> states, String item, String state) {
+        while (true) {
+            String current = states.get(item);
+            if (state.equals(current)) {
+                return false;
+            }
+
+            if (current == null ? states.putIfAbsent(item, state) == null : states.replace(item, current, state)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Listeners by item name.
+     */
+    static class Subscriptions {
+        // declared as ConcurrentMap, keySet of ConcurrentHashMap returns a type not available before API 24
+        private final ConcurrentMap<String, List<IStateUpdateListener>> mListeners = new ConcurrentHashMap<>();
+
+        /**
+         * @return whether the item had no listeners before
+         */
+        boolean add(String item, IStateUpdateListener l) {
+            while (true) {
+                List<IStateUpdateListener> current = mListeners.get(item);
+                if (current == null) {
+                    if (mListeners.putIfAbsent(item, Collections.singletonList(l)) == null) {
+                        return true;
+                    }
+                    continue;
+                }
+
+                if (current.contains(l)) {
+                    return false;
+                }
+
+                ArrayList<IStateUpdateListener> listeners = new ArrayList<>(current.size() + 1);
+                listeners.addAll(current);
+                listeners.add(l);
+                if (mListeners.replace(item, current, Collections.unmodifiableList(listeners))) {
+                    return false;
+                }
+            }
+        }
+
+        /**
+         * @return whether the last listener of the item has been removed
+         */
+        boolean remove(String item, IStateUpdateListener l) {
+            while (true) {
+                List<IStateUpdateListener> current = mListeners.get(item);
+                if (current == null || !current.contains(l)) {
+                    return false;
+                }
+
+                if (current.size() == 1) {
+                    if (mListeners.remove(item, current)) {
+                        return true;
+                    }
+                    continue;
+                }
+
+                ArrayList<IStateUpdateListener> listeners = new ArrayList<>(current);
+                listeners.remove(l);
+                if (mListeners.replace(item, current, Collections.unmodifiableList(listeners))) {
+                    return false;
+                }
+            }
+        }
+
+        List<IStateUpdateListener> getListeners(String item) {
+            List<IStateUpdateListener> listeners = mListeners.get(item);
+            return listeners == null ? Collections.emptyList() : listeners;
+        }
+
+        boolean contains(String item) {
+            return mListeners.containsKey(item);
+        }
+
+        boolean isEmpty() {
+            return mListeners.isEmpty();
+        }
+
+        /**
+         * @return a snapshot of the subscribed items
+         */
+        Set<String> getItems() {
+            return new HashSet<>(mListeners.keySet());
+        }
+
+        void clear() {
+            mListeners.clear();
+        }
+    }
+}
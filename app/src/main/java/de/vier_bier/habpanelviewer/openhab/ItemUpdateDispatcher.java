@@ -0,0 +1,220 @@
+package de.vier_bier.habpanelviewer.openhab;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Delivers item updates to a listener on a separate thread, so slow listeners do not stall the
+ * thread reading the event stream. Updates are delivered in the order they have been received.
+ *
+ * The queue is bounded. A state update replaces a pending state update of the same item and is
+ * moved to the end of the queue, so only the latest state is delivered and it is not delivered
+ * before commands received earlier. Commands are never merged. When the queue is full, the oldest
+ * state update is dropped, a command only if no state update is queued.
+ */
+class ItemUpdateDispatcher {
+    private static final String TAG = "HPV-ItemUpdateDispatch";
+
+    private final String mName;
+    private final int mCapacity;
+    private final IStateUpdateListener mTarget;
+
+    private final ArrayDeque<Update> mQueue = new ArrayDeque<>();
+    // queued state updates by item name
+    private final HashMap<String, Update> mPendingStates = new HashMap<>();
+    private Thread mThread;
+    private boolean mDelivering;
+
+    private long mDispatchedCount;
+    private long mCoalescedCount;
+    private long mDroppedCount;
+    private int mMaxDepth;
+    private long mTotalLatencyNanos;
+    private long mMaxLatencyNanos;
+
+    ItemUpdateDispatcher(String name, int capacity, IStateUpdateListener target) {
+        mName = name;
+        mCapacity = capacity;
+        mTarget = target;
+    }
+
+    synchronized void offerState(String item, String state) {
+        Update pending = mPendingStates.get(item);
+        if (pending != null) {
+            // the queue is short, removing from its middle is cheap enough
+            mQueue.remove(pending);
+            pending.mValue = state;
+            mQueue.add(pending);
+            mCoalescedCount++;
+            return;
+        }
+
+        Update update = new Update(item, state, true);
+        mPendingStates.put(item, update);
+        enqueue(update);
+    }
+
+    synchronized void offerCommand(String item, String command) {
+        enqueue(new Update(item, command, false));
+    }
+
+    private void enqueue(Update update) {
+        if (mQueue.size() >= mCapacity) {
+            Update dropped = dropOldest();
+            mDroppedCount++;
+            Log.w(TAG, "queue full, dropping update of " + dropped.mItem);
+        }
+
+        mQueue.add(update);
+        mMaxDepth = Math.max(mMaxDepth, mQueue.size());
+
+        if (mThread == null) {
+            mThread = new Thread(this::run, mName);
+            mThread.setDaemon(true);
+            mThread.start();
+        } else {
+            notifyAll();
+        }
+    }
+
+    // drops the oldest state update, as a later state update of the item may replace it,
+    // or the oldest command if there is no state update
+    private Update dropOldest() {
+        Iterator<Update> it = mQueue.iterator();
+        while (it.hasNext()) {
+            Update update = it.next();
+            if (update.mState) {
+                it.remove();
+                mPendingStates.remove(update.mItem);
+                return update;
+            }
+        }
+
+        return mQueue.poll();
+    }
+
+    /**
+     * Stops delivering, pending updates are discarded.
+     */
+    synchronized void stop() {
+        mQueue.clear();
+        mPendingStates.clear();
+
+        if (mThread != null) {
+            mThread.interrupt();
+            mThread = null;
+        }
+    }
+
+    /**
+     * Waits until all queued updates have been delivered.
+     *
+     * @return false if the timeout elapsed before
+     */
+    synchronized boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        final long end = System.currentTimeMillis() + timeoutMillis;
+        while (!mQueue.isEmpty() || mDelivering) {
+            long remaining = end - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    private void run() {
+        final Thread current = Thread.currentThread();
+
+        while (true) {
+            final String item;
+            final String value;
+            synchronized (this) {
+                mDelivering = false;
+                notifyAll();
+
+                while (mQueue.isEmpty() && mThread == current) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        // stopped
+                    }
+                }
+                if (mThread != current) {
+                    return;
+                }
+
+                Update update = mQueue.poll();
+                if (update.mState) {
+                    mPendingStates.remove(update.mItem);
+                }
+                item = update.mItem;
+                value = update.mValue;
+                mDelivering = true;
+            }
+
+            final long start = System.nanoTime();
+            try {
+                mTarget.itemUpdated(item, value);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "listener failed to handle update of " + item, e);
+            }
+            final long latency = System.nanoTime() - start;
+
+            synchronized (this) {
+                mDispatchedCount++;
+                mTotalLatencyNanos += latency;
+                mMaxLatencyNanos = Math.max(mMaxLatencyNanos, latency);
+            }
+        }
+    }
+
+    synchronized int getDepth() {
+        return mQueue.size();
+    }
+
+    synchronized int getMaxDepth() {
+        return mMaxDepth;
+    }
+
+    synchronized long getDispatchedCount() {
+        return mDispatchedCount;
+    }
+
+    /**
+     * @return the number of state updates that have been replaced by a newer state
+     */
+    synchronized long getCoalescedCount() {
+        return mCoalescedCount;
+    }
+
+    synchronized long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    /**
+     * @return the average time the listener took per update in ms
+     */
+    synchronized long getAverageLatencyMillis() {
+        return mDispatchedCount == 0 ? 0 : mTotalLatencyNanos / mDispatchedCount / 1000000;
+    }
+
+    synchronized long getMaxLatencyMillis() {
+        return mMaxLatencyNanos / 1000000;
+    }
+
+    private static class Update {
+        final String mItem;
+        final boolean mState;
+        String mValue;
+
+        Update(String item, String value, boolean state) {
+            mItem = item;
+            mValue = value;
+            mState = state;
+        }
+    }
+}
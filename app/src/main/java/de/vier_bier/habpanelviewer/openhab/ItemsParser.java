@@ -0,0 +1,223 @@
+package de.vier_bier.habpanelviewer.openhab;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Streaming parser for the item list returned by /rest/items, e.g.
+ * <pre>
+ * [{"name":"Light","state":"ON"},{"name":"Temperature","state":"21.5","tags":[]}]
+ * </pre>
+ * Items are reported one by one while reading, the list is never held in memory. Members other
+ * than name and state are skipped.
+ */
+class ItemsParser {
+    private final Reader mReader;
+    private final StringBuilder mString = new StringBuilder();
+    // next character if it has already been read, -1 otherwise
+    private int mPeeked = -1;
+
+    ItemsParser(Reader reader) {
+        mReader = reader;
+    }
+
+    /**
+     * Reads the item list and reports the state of every item.
+     *
+     * @throws IOException if reading fails or the list is malformed
+     */
+    void parse(IStateUpdateListener l) throws IOException {
+        expect('[');
+        if (peek() == ']') {
+            read();
+            return;
+        }
+
+        do {
+            readItem(l);
+        } while (hasNext(']'));
+    }
+
+    private void readItem(IStateUpdateListener l) throws IOException {
+        expect('{');
+
+        String name = null;
+        String state = null;
+        if (peek() == '}') {
+            read();
+        } else {
+            do {
+                String key = readString();
+                expect(':');
+
+                if ("name".equals(key)) {
+                    name = readStringOrLiteral();
+                } else if ("state".equals(key)) {
+                    state = readStringOrLiteral();
+                } else {
+                    skipValue();
+                }
+            } while (hasNext('}'));
+        }
+
+        if (name != null && state != null) {
+            l.itemUpdated(name, state);
+        }
+    }
+
+    // reads a comma or the given closing character
+    private boolean hasNext(char close) throws IOException {
+        int c = read();
+        if (c == ',') {
+            return true;
+        }
+        if (c == close) {
+            return false;
+        }
+        throw new IOException("expected ',' or '" + close + "' but got '" + (char) c + "'");
+    }
+
+    private String readString() throws IOException {
+        expect('"');
+        mString.setLength(0);
+
+        while (true) {
+            int c = readRaw();
+            if (c == '"') {
+                return mString.toString();
+            }
+
+            if (c == '\\') {
+                c = readRaw();
+                switch (c) {
+                    case 'b':
+                        c = '\b';
+                        break;
+                    case 'f':
+                        c = '\f';
+                        break;
+                    case 'n':
+                        c = '\n';
+                        break;
+                    case 'r':
+                        c = '\r';
+                        break;
+                    case 't':
+                        c = '\t';
+                        break;
+                    case 'u':
+                        int code = 0;
+                        for (int i = 0; i < 4; i++) {
+                            int digit = Character.digit(readRaw(), 16);
+                            if (digit < 0) {
+                                throw new IOException("invalid unicode escape");
+                            }
+                            code = code << 4 | digit;
+                        }
+                        c = code;
+                        break;
+                    case '"':
+                    case '\\':
+                    case '/':
+                        break;
+                    default:
+                        throw new IOException("invalid escape '\\" + (char) c + "'");
+                }
+            }
+            mString.append((char) c);
+        }
+    }
+
+    // strings are returned unquoted, null as null and other literals as they are
+    private String readStringOrLiteral() throws IOException {
+        if (peek() == '"') {
+            return readString();
+        }
+
+        mString.setLength(0);
+        readLiteral(mString);
+        String literal = mString.toString();
+        return "null".equals(literal) ? null : literal;
+    }
+
+    private void skipValue() throws IOException {
+        int c = peek();
+        if (c == '"') {
+            readString();
+        } else if (c == '{' || c == '[') {
+            int depth = 0;
+            do {
+                c = peek();
+                if (c == '"') {
+                    readString();
+                    continue;
+                }
+
+                readRaw();
+                if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                }
+            } while (depth > 0);
+        } else {
+            readLiteral(null);
+        }
+    }
+
+    private void readLiteral(StringBuilder b) throws IOException {
+        int c = peek();
+        while (c != ',' && c != '}' && c != ']' && !isWhitespace(c)) {
+            readRaw();
+            if (b != null) {
+                b.append((char) c);
+            }
+            c = peekRaw();
+        }
+    }
+
+    private void expect(char expected) throws IOException {
+        int c = read();
+        if (c != expected) {
+            throw new IOException("expected '" + expected + "' but got '" + (char) c + "'");
+        }
+    }
+
+    // next character that is not whitespace
+    private int read() throws IOException {
+        int c = readRaw();
+        while (isWhitespace(c)) {
+            c = readRaw();
+        }
+        return c;
+    }
+
+    private int peek() throws IOException {
+        int c = peekRaw();
+        while (isWhitespace(c)) {
+            readRaw();
+            c = peekRaw();
+        }
+        return c;
+    }
+
+    private int readRaw() throws IOException {
+        int c = peekRaw();
+        mPeeked = -1;
+        return c;
+    }
+
+    private int peekRaw() throws IOException {
+        if (mPeeked < 0) {
+            mPeeked = mReader.read();
+            if (mPeeked < 0) {
+                throw new IOException("unexpected end of item list");
+            }
+        }
+        return mPeeked;
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+}
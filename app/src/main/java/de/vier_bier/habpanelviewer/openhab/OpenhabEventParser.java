@@ -0,0 +1,399 @@
+package de.vier_bier.habpanelviewer.openhab;
+
+/**
+ * Streaming parser for the events openHAB sends on /rest/events, e.g.
+ * <pre>
+ * {"topic":"openhab/items/Light/statechanged","payload":"{\"type\":\"OnOff\",\"value\":\"ON\"}","type":"ItemStateChangedEvent"}
+ * </pre>
+ * The item name is taken from the topic and the value from the payload, which is a JSON document
+ * embedded as string. No JSON objects are built: the event is scanned in place and the payload is
+ * unescaped into a reused buffer. Only the item name and value strings are allocated.
+ *
+ * Instances are not thread safe.
+ */
+class OpenhabEventParser {
+    enum EventType {
+        STATE_CHANGED, COMMAND, OTHER
+    }
+
+    // returned by the scanning methods when the end of an object has been reached
+    private static final int END = Integer.MAX_VALUE;
+
+    private char[] mEvent = new char[512];
+    private char[] mPayload = new char[256];
+    private char[] mScratch = new char[64];
+
+    // bounds of the string read last, end is exclusive
+    private int mTokenStart;
+    private int mTokenEnd;
+    private boolean mTokenEscaped;
+
+    // bounds of the key read last
+    private int mKeyStart;
+    private int mKeyEnd;
+
+    private EventType mType = EventType.OTHER;
+    private String mName;
+    private String mValue;
+
+    /**
+     * Parses the given event. Name and value are only set for item state and command events.
+     *
+     * @return false if the event is malformed or an item event has no item name or value
+     */
+    boolean parse(String event) {
+        mType = EventType.OTHER;
+        mName = null;
+        mValue = null;
+
+        final int len = event.length();
+        if (mEvent.length < len) {
+            mEvent = new char[Math.max(len, 2 * mEvent.length)];
+        }
+        event.getChars(0, len, mEvent, 0);
+        final char[] b = mEvent;
+
+        int topicStart = -1;
+        int topicEnd = -1;
+        boolean topicEscaped = false;
+        int payloadStart = -1;
+        int payloadEnd = -1;
+        boolean payloadEscaped = false;
+
+        int pos = openObject(b, 0, len);
+        while (pos >= 0 && pos != END) {
+            pos = readKey(b, pos, len);
+            if (pos < 0) {
+                return false;
+            }
+
+            if (b[pos] == '"' && isKey(b, "type")) {
+                pos = readString(b, pos, len);
+                if (isToken(b, "ItemStateChangedEvent") || isToken(b, "GroupItemStateChangedEvent")) {
+                    mType = EventType.STATE_CHANGED;
+                } else if (isToken(b, "ItemCommandEvent")) {
+                    mType = EventType.COMMAND;
+                }
+            } else if (b[pos] == '"' && isKey(b, "topic")) {
+                pos = readString(b, pos, len);
+                topicStart = mTokenStart;
+                topicEnd = mTokenEnd;
+                topicEscaped = mTokenEscaped;
+            } else if (b[pos] == '"' && isKey(b, "payload")) {
+                pos = readString(b, pos, len);
+                payloadStart = mTokenStart;
+                payloadEnd = mTokenEnd;
+                payloadEscaped = mTokenEscaped;
+            } else {
+                pos = skipValue(b, pos, len);
+            }
+
+            if (pos >= 0) {
+                pos = nextMember(b, pos, len);
+            }
+        }
+
+        if (pos < 0) {
+            return false;
+        }
+        if (mType == EventType.OTHER) {
+            return true;
+        }
+
+        if (topicStart < 0 || payloadStart < 0) {
+            return false;
+        }
+        mName = itemName(b, topicStart, topicEnd, topicEscaped);
+        mValue = payloadValue(b, payloadStart, payloadEnd, payloadEscaped);
+        return mName != null && mValue != null;
+    }
+
+    EventType getType() {
+        return mType;
+    }
+
+    String getName() {
+        return mName;
+    }
+
+    String getValue() {
+        return mValue;
+    }
+
+    // the third segment of the topic, e.g. Light in openhab/items/Light/statechanged
+    private String itemName(char[] b, int start, int end, boolean escaped) {
+        if (escaped) {
+            int len = unescape(b, start, end, scratch(end - start));
+            if (len < 0) {
+                return null;
+            }
+            b = mScratch;
+            start = 0;
+            end = len;
+        }
+
+        int segment = 0;
+        int segmentStart = start;
+        for (int i = start; i <= end; i++) {
+            if (i == end || b[i] == '/') {
+                if (segment++ == 2) {
+                    return i > segmentStart ? new String(b, segmentStart, i - segmentStart) : null;
+                }
+                segmentStart = i + 1;
+            }
+        }
+        return null;
+    }
+
+    // the value member of the payload object
+    private String payloadValue(char[] b, int start, int end, boolean escaped) {
+        if (mPayload.length < end - start) {
+            mPayload = new char[Math.max(end - start, 2 * mPayload.length)];
+        }
+
+        final int len;
+        if (escaped) {
+            len = unescape(b, start, end, mPayload);
+            if (len < 0) {
+                return null;
+            }
+        } else {
+            len = end - start;
+            System.arraycopy(b, start, mPayload, 0, len);
+        }
+
+        final char[] p = mPayload;
+        int pos = openObject(p, 0, len);
+        while (pos >= 0 && pos != END) {
+            pos = readKey(p, pos, len);
+            if (pos < 0) {
+                return null;
+            }
+
+            if (isKey(p, "value")) {
+                if (p[pos] == '"') {
+                    if (readString(p, pos, len) < 0) {
+                        return null;
+                    }
+                    return decodeToken(p);
+                }
+
+                // not a string, use the literal as getString of JSONObject does
+                int valueEnd = skipValue(p, pos, len);
+                return valueEnd < 0 ? null : new String(p, pos, valueEnd - pos);
+            }
+
+            pos = skipValue(p, pos, len);
+            if (pos >= 0) {
+                pos = nextMember(p, pos, len);
+            }
+        }
+        return null;
+    }
+
+    private String decodeToken(char[] b) {
+        if (!mTokenEscaped) {
+            return new String(b, mTokenStart, mTokenEnd - mTokenStart);
+        }
+
+        int len = unescape(b, mTokenStart, mTokenEnd, scratch(mTokenEnd - mTokenStart));
+        return len < 0 ? null : new String(mScratch, 0, len);
+    }
+
+    private char[] scratch(int size) {
+        if (mScratch.length < size) {
+            mScratch = new char[Math.max(size, 2 * mScratch.length)];
+        }
+        return mScratch;
+    }
+
+    private boolean isKey(char[] b, String key) {
+        return regionEquals(b, mKeyStart, mKeyEnd, key);
+    }
+
+    private boolean isToken(char[] b, String token) {
+        return regionEquals(b, mTokenStart, mTokenEnd, token);
+    }
+
+    private static boolean regionEquals(char[] b, int start, int end, String s) {
+        if (end - start != s.length()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (b[start + i] != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // returns the position of the first member, END for an empty object or -1 if malformed
+    private static int openObject(char[] b, int pos, int len) {
+        pos = skipWhitespace(b, pos, len);
+        if (pos >= len || b[pos] != '{') {
+            return -1;
+        }
+
+        pos = skipWhitespace(b, pos + 1, len);
+        if (pos >= len) {
+            return -1;
+        }
+        return b[pos] == '}' ? END : pos;
+    }
+
+    // reads "key": and returns the position of the value or -1 if malformed
+    private int readKey(char[] b, int pos, int len) {
+        pos = readString(b, skipWhitespace(b, pos, len), len);
+        if (pos < 0) {
+            return -1;
+        }
+        mKeyStart = mTokenStart;
+        mKeyEnd = mTokenEnd;
+
+        pos = skipWhitespace(b, pos, len);
+        if (pos >= len || b[pos] != ':') {
+            return -1;
+        }
+
+        pos = skipWhitespace(b, pos + 1, len);
+        return pos < len ? pos : -1;
+    }
+
+    // returns the position after the comma, END at the end of the object or -1 if malformed
+    private static int nextMember(char[] b, int pos, int len) {
+        pos = skipWhitespace(b, pos, len);
+        if (pos >= len) {
+            return -1;
+        }
+        if (b[pos] == '}') {
+            return END;
+        }
+        return b[pos] == ',' ? pos + 1 : -1;
+    }
+
+    // reads the string starting at pos and returns the position after it or -1 if malformed
+    private int readString(char[] b, int pos, int len) {
+        if (pos < 0 || pos >= len || b[pos] != '"') {
+            return -1;
+        }
+
+        boolean escaped = false;
+        for (int i = pos + 1; i < len; i++) {
+            char c = b[i];
+            if (c == '"') {
+                mTokenStart = pos + 1;
+                mTokenEnd = i;
+                mTokenEscaped = escaped;
+                return i + 1;
+            } else if (c == '\\') {
+                escaped = true;
+                i++;
+            }
+        }
+        return -1;
+    }
+
+    // skips any value and returns the position after it or -1 if malformed
+    private int skipValue(char[] b, int pos, int len) {
+        char c = b[pos];
+        if (c == '"') {
+            return readString(b, pos, len);
+        }
+
+        if (c == '{' || c == '[') {
+            int depth = 0;
+            while (pos < len) {
+                c = b[pos];
+                if (c == '"') {
+                    pos = readString(b, pos, len);
+                    if (pos < 0) {
+                        return -1;
+                    }
+                    continue;
+                }
+
+                if (c == '{' || c == '[') {
+                    depth++;
+                } else if ((c == '}' || c == ']') && --depth == 0) {
+                    return pos + 1;
+                }
+                pos++;
+            }
+            return -1;
+        }
+
+        // number, true, false or null
+        int start = pos;
+        while (pos < len && b[pos] != ',' && b[pos] != '}' && b[pos] != ']' && !isWhitespace(b[pos])) {
+            pos++;
+        }
+        return pos > start ? pos : -1;
+    }
+
+    private static int skipWhitespace(char[] b, int pos, int len) {
+        while (pos >= 0 && pos < len && isWhitespace(b[pos])) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+
+    // resolves the escape sequences of a JSON string, returns the length or -1 if malformed
+    private static int unescape(char[] src, int start, int end, char[] dst) {
+        int len = 0;
+        for (int i = start; i < end; i++) {
+            char c = src[i];
+            if (c != '\\') {
+                dst[len++] = c;
+                continue;
+            }
+
+            if (++i == end) {
+                return -1;
+            }
+            switch (src[i]) {
+                case '"':
+                case '\\':
+                case '/':
+                    dst[len++] = src[i];
+                    break;
+                case 'b':
+                    dst[len++] = '\b';
+                    break;
+                case 'f':
+                    dst[len++] = '\f';
+                    break;
+                case 'n':
+                    dst[len++] = '\n';
+                    break;
+                case 'r':
+                    dst[len++] = '\r';
+                    break;
+                case 't':
+                    dst[len++] = '\t';
+                    break;
+                case 'u':
+                    if (i + 4 >= end) {
+                        return -1;
+                    }
+                    int code = 0;
+                    for (int j = 1; j <= 4; j++) {
+                        int digit = Character.digit(src[i + j], 16);
+                        if (digit < 0) {
+                            return -1;
+                        }
+                        code = code << 4 | digit;
+                    }
+                    dst[len++] = (char) code;
+                    i += 4;
+                    break;
+                default:
+                    return -1;
+            }
+        }
+        return len;
+    }
+}
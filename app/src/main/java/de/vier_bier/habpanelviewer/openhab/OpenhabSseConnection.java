@@ -2,80 +2,114 @@ package de.vier_bier.habpanelviewer.openhab;
 
 import android.util.Log;
 
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.util.ArrayList;
 import java.util.Collections;
-import java.util.List;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class OpenhabSseConnection extends SseConnection implements SseConnection.ISseDataListener {
     private static final String TAG = "HPV-O...SseConnection";
 
-    private final List<String> mItemNames = new ArrayList<>();
-    private String mCmdItemName;
+    // replaced on every change, so events can be filtered without locking
+    private volatile Set<String> mItemNames = Collections.emptySet();
+    private volatile String mCmdItemName;
     private OHVersion mVersion;
-
-    private final ArrayList<IStateUpdateListener> mListeners = new ArrayList<>();
+    // subscribe to the events of all items and filter them by name
+    private volatile boolean mWildcard;
+
+    // updates queued for delivery before the oldest is dropped
+    private static final int DISPATCH_CAPACITY = 1000;
+
+    private final CopyOnWriteArrayList<IStateUpdateListener> mListeners = new CopyOnWriteArrayList<>();
+    private final OpenhabEventParser mParser = new OpenhabEventParser();
+    // listeners are not called on the thread reading the stream
+    private final ItemUpdateDispatcher mDispatcher = new ItemUpdateDispatcher("ItemUpdateDispatcher",
+            DISPATCH_CAPACITY, (name, value) -> {
+        for (IStateUpdateListener l : mListeners) {
+            l.itemUpdated(name, value);
+        }
+    });
 
     OpenhabSseConnection() {
         super.addListener(this);
     }
 
     void addItemValueListener(IStateUpdateListener l) {
-        synchronized (mListeners) {
-            if (!mListeners.contains(l)) {
-                mListeners.add(l);
-            }
-        }
+        mListeners.addIfAbsent(l);
     }
 
     public void removeItemValueListener(IStateUpdateListener l) {
-        synchronized (mListeners) {
-            mListeners.remove(l);
-        }
+        mListeners.remove(l);
+    }
+
+    ItemUpdateDispatcher getDispatcher() {
+        return mDispatcher;
+    }
+
+    @Override
+    void dispose() {
+        super.dispose();
+        mDispatcher.stop();
     }
 
     @Override
     public void data(String data) {
         if (data != null) {
-            try {
-                JSONObject jObject = new JSONObject(data);
-                String type = jObject.getString("type");
-                if ("ItemStateChangedEvent".equals(type) || "GroupItemStateChangedEvent".equals(type)) {
-                    JSONObject payload = new JSONObject(jObject.getString("payload"));
-                    String topic = jObject.getString("topic");
-                    String name = topic.split("/")[2];
-                    final String value = payload.getString("value");
-
-                    synchronized (mListeners) {
-                        for (IStateUpdateListener l : mListeners) {
-                            l.itemUpdated(name, value);
-                        }
-                    }
-                } else if ("ItemCommandEvent".equals(type)) {
-                    JSONObject payload = new JSONObject(jObject.getString("payload"));
-                    String topic = jObject.getString("topic");
-                    String name = topic.split("/")[2];
-                    final String value = payload.getString("value");
-
-                    synchronized (mListeners) {
-                        for (IStateUpdateListener l : mListeners) {
-                            l.itemUpdated(name, value);
-                        }
+            // events of a replaced connection may still be delivered
+            synchronized (mParser) {
+                if (!mParser.parse(data)) {
+                    Log.e(TAG, "Error parsing JSON: " + data);
+                    return;
+                }
+                if (mParser.getType() == OpenhabEventParser.EventType.OTHER) {
+                    return;
+                }
+
+                final String name = mParser.getName();
+                final String value = mParser.getValue();
+
+                // with wildcard topics events of all items are received
+                if (mParser.getType() == OpenhabEventParser.EventType.STATE_CHANGED) {
+                    if (mItemNames.contains(name)) {
+                        mDispatcher.offerState(name, value);
                     }
+                } else if (name.equals(mCmdItemName)) {
+                    mDispatcher.offerCommand(name, value);
                 }
-            } catch (JSONException e) {
-                Log.e(TAG, "Error parsing JSON", e);
             }
         }
     }
 
-    void setItemNames(String cmdItemName, String... names) {
-        synchronized (mItemNames) {
-            mCmdItemName = cmdItemName;
-            mItemNames.clear();
-            Collections.addAll(mItemNames, names);
+    /**
+     * Sets the items to receive updates for. The connection is only reestablished if this changes
+     * the subscribed topics, which is not the case when subscribed to all items.
+     *
+     * @return whether the connection is reestablished
+     */
+    boolean setItemNames(String cmdItemName, String... names) {
+        final String oldTopic = buildTopic();
+
+        LinkedHashSet<String> itemNames = new LinkedHashSet<>();
+        Collections.addAll(itemNames, names);
+        mItemNames = itemNames;
+        mCmdItemName = cmdItemName;
+
+        return reconnectIfChanged(oldTopic);
+    }
+
+    /**
+     * Sets whether to subscribe to all items instead of only the subscribed ones.
+     */
+    void setWildcard(boolean wildcard) {
+        final String oldTopic = buildTopic();
+        mWildcard = wildcard;
+
+        reconnectIfChanged(oldTopic);
+    }
+
+    private boolean reconnectIfChanged(String oldTopic) {
+        if (oldTopic.equals(buildTopic())) {
+            return false;
         }
 
         if (mStatus.isConnecting() || mStatus == Status.CONNECTED) {
@@ -85,11 +119,15 @@ public class OpenhabSseConnection extends SseConnection implements SseConnection
         if (mStatus == Status.NOT_CONNECTED) {
             connect();
         }
+        return true;
     }
 
     @Override
     protected String buildUrl() {
-        return mUrl + "/rest/events?topics=" + buildTopic();
+        String topic = buildTopic();
+        Log.v(TAG, "new SSE topic: " + topic);
+
+        return mUrl + "/rest/events?topics=" + topic;
     }
 
     private String buildTopic() {
@@ -98,28 +136,35 @@ public class OpenhabSseConnection extends SseConnection implements SseConnection
             prefix = "smarthome";
         }
 
+        final String cmdItemName = mCmdItemName;
+        final boolean hasCmdItem = cmdItemName != null && !"".equals(cmdItemName.trim());
+
         StringBuilder topic = new StringBuilder();
-        synchronized (mItemNames) {
-            for (String item : mItemNames) {
-                if (topic.length() > 0) {
-                    topic.append(",");
-                }
-                topic.append(prefix).append("/items/").append(item).append("/statechanged");
+        if (mWildcard) {
+            topic.append(prefix).append("/items/*/statechanged");
+            if (hasCmdItem) {
+                topic.append(",").append(prefix).append("/items/*/command");
             }
+            return topic.toString();
         }
-        if (mCmdItemName != null && !"".equals(mCmdItemName.trim())) {
+
+        for (String item : mItemNames) {
             if (topic.length() > 0) {
                 topic.append(",");
             }
-            topic.append(prefix).append("/items/").append(mCmdItemName).append("/command");
+            topic.append(prefix).append("/items/").append(item).append("/statechanged");
+        }
+        if (hasCmdItem) {
+            if (topic.length() > 0) {
+                topic.append(",");
+            }
+            topic.append(prefix).append("/items/").append(cmdItemName).append("/command");
         }
 
         if (topic.length() == 0) {
             topic.append(prefix).append("/items/dummyItemThatDoesNotExist/statechanged");
         }
 
-
-        Log.v(TAG, "new SSE topic: " + topic.toString());
         return topic.toString();
     }
 
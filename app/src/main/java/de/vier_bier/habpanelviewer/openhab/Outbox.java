@@ -0,0 +1,249 @@
+package de.vier_bier.habpanelviewer.openhab;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Durable store for state updates that could not be delivered to the server. Only the last state
+ * of an item is kept.
+ *
+ * Changes are appended to a file, so they survive app restarts. A record consists of the item
+ * name and the state, or no state if the update has been delivered. The file is rewritten with
+ * the current states when it contains too many outdated records. A record that has only been
+ * written partially, e.g. because the app was killed, is ignored when loading.
+ *
+ * The states are kept in memory, the file is written on a separate thread, so callers on the main
+ * thread are not blocked by disk I/O.
+ */
+class Outbox {
+    private static final String TAG = "HPV-Outbox";
+
+    // number of outdated records that triggers a rewrite of the file
+    private static final int COMPACT_THRESHOLD = 100;
+
+    private final File mFile;
+    private final LinkedHashMap<String, String> mStates = new LinkedHashMap<>();
+    private int mRecordCount;
+    private boolean mClosed;
+
+    // only used on the writer thread
+    private DataOutputStream mOut;
+    private final ExecutorService mWriter = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "OutboxWriter");
+        t.setDaemon(true);
+        return t;
+    });
+
+    Outbox(File file) {
+        mFile = file;
+        load();
+    }
+
+    /**
+     * Stores the state of the given item, replacing an undelivered state of this item.
+     */
+    synchronized void put(String item, String state) {
+        if (state.equals(mStates.get(item))) {
+            return;
+        }
+
+        // move the item to the end, so items are flushed in the order of their last update
+        mStates.remove(item);
+        mStates.put(item, state);
+        append(item, state);
+    }
+
+    /**
+     * Replaces the state of the given item if it has an undelivered state.
+     */
+    synchronized void replace(String item, String state) {
+        if (mStates.containsKey(item)) {
+            put(item, state);
+        }
+    }
+
+    /**
+     * Removes the state of the given item if it equals the delivered state.
+     */
+    synchronized void delivered(String item, String state) {
+        if (state.equals(mStates.get(item))) {
+            mStates.remove(item);
+            append(item, null);
+        }
+    }
+
+    synchronized String get(String item) {
+        return mStates.get(item);
+    }
+
+    /**
+     * @return the items with undelivered states, in the order they have been updated
+     */
+    synchronized List<String> getItems() {
+        return new ArrayList<>(mStates.keySet());
+    }
+
+    synchronized int size() {
+        return mStates.size();
+    }
+
+    /**
+     * Writes the pending changes and closes the file. Later changes are only kept in memory.
+     */
+    void close() {
+        synchronized (this) {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            mWriter.execute(this::closeStream);
+            mWriter.shutdown();
+        }
+
+        try {
+            if (!mWriter.awaitTermination(5, TimeUnit.SECONDS)) {
+                Log.w(TAG, "Timed out writing outbox");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void closeStream() {
+        if (mOut != null) {
+            try {
+                mOut.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to close outbox", e);
+            }
+            mOut = null;
+        }
+    }
+
+    private void load() {
+        if (!mFile.exists()) {
+            return;
+        }
+
+        final long length = mFile.length();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)))) {
+            while (true) {
+                String item = readString(in, length);
+                String state = readString(in, length);
+                if (item == null) {
+                    throw new IOException("record without item name");
+                }
+
+                mStates.remove(item);
+                if (state != null) {
+                    mStates.put(item, state);
+                }
+                mRecordCount++;
+            }
+        } catch (EOFException e) {
+            // end of file or partially written record
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read outbox, ignoring remaining records", e);
+        }
+
+        Log.d(TAG, "Loaded " + mStates.size() + " undelivered updates");
+
+        // drop outdated and partially written records
+        mRecordCount = mStates.size();
+        mWriter.execute(this::compact);
+    }
+
+    private void append(String item, String state) {
+        if (mClosed) {
+            return;
+        }
+
+        if (++mRecordCount - mStates.size() > COMPACT_THRESHOLD) {
+            mRecordCount = mStates.size();
+            mWriter.execute(this::compact);
+        } else {
+            mWriter.execute(() -> write(item, state));
+        }
+    }
+
+    private void write(String item, String state) {
+        try {
+            if (mOut == null) {
+                mOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mFile, true)));
+            }
+
+            writeString(mOut, item);
+            writeString(mOut, state);
+            mOut.flush();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to store update of " + item, e);
+        }
+    }
+
+    // rewrites the file with the current states, changes queued afterwards are appended again
+    private void compact() {
+        closeStream();
+
+        final LinkedHashMap<String, String> states;
+        synchronized (this) {
+            states = new LinkedHashMap<>(mStates);
+        }
+
+        File tmp = new File(mFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            for (Map.Entry<String, String> entry : states.entrySet()) {
+                writeString(out, entry.getKey());
+                writeString(out, entry.getValue());
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to rewrite outbox", e);
+            return;
+        }
+
+        if (!tmp.renameTo(mFile)) {
+            Log.e(TAG, "Failed to replace outbox " + mFile);
+        }
+    }
+
+    // strings are stored as length and UTF-8 bytes, null as length -1
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(DataInputStream in, long maxLength) throws IOException {
+        int len = in.readInt();
+        if (len < 0) {
+            return null;
+        }
+        if (len > maxLength) {
+            throw new IOException("invalid record length " + len);
+        }
+
+        byte[] bytes = new byte[len];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -4,9 +4,17 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.util.Log;
 
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
 
 import de.vier_bier.habpanelviewer.connection.OkHttpClientFactory;
+import okhttp3.Call;
+import okhttp3.Callback;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
@@ -19,8 +27,25 @@ class RestClient extends HandlerThread {
 
     private static final int SET_ID = 213;
     private static final int GET_ID = 214;
+    private static final int GET_ALL_ID = 215;
+    private static final int FLUSH_ID = 216;
+    private static final int RETRY_ID = 217;
+
+    // undelivered updates queued per flush step and the delay between the steps
+    private static final int FLUSH_BATCH_SIZE = 10;
+    private static final long FLUSH_INTERVAL = 1000;
+
+    // delay before failed updates are sent again while the server is reachable
+    private static final long RETRY_BASE = 1000;
+    private static final long RETRY_CAP = 60000;
+
+    // state updates sent in parallel, leaves a slot of OkHttp's per host limit for the SSE stream
+    private static final int MAX_UPDATES_IN_FLIGHT = 4;
 
     private Handler mWorkerHandler;
+    private final StateUpdateQueue mUpdates = new StateUpdateQueue(MAX_UPDATES_IN_FLIGHT);
+    private IUpdateListener mUpdateListener;
+    private final Backoff mRetryBackoff = new Backoff(RETRY_BASE, RETRY_CAP);
 
     RestClient() {
         super("RestClient");
@@ -31,8 +56,61 @@ class RestClient extends HandlerThread {
         mWorkerHandler.obtainMessage(GET_ID, new ItemSubscription(serverURL, l, itemName)).sendToTarget();
     }
 
+    /**
+     * Fetches the state of the given items with a single request for all items. Items missing
+     * in the response are fetched one by one.
+     */
+    void getItemStates(String serverURL, ISubscriptionListener l, Collection<String> itemNames) {
+        mWorkerHandler.obtainMessage(GET_ALL_ID, new ItemsSubscription(serverURL, l, itemNames)).sendToTarget();
+    }
+
+    /**
+     * Queues a state update. If the item already has a pending update, it is replaced.
+     */
     void setItemState(String serverURL, ItemState itemState) {
-        mWorkerHandler.obtainMessage(SET_ID, new ItemModification(serverURL, itemState)).sendToTarget();
+        mUpdates.offer(new ItemModification(serverURL, itemState));
+        sendUpdates();
+    }
+
+    /**
+     * Sends the undelivered updates of the outbox in rate limited steps. A flush in progress is
+     * replaced.
+     */
+    void flush(String serverURL, Outbox outbox) {
+        mWorkerHandler.removeMessages(FLUSH_ID);
+        mWorkerHandler.obtainMessage(FLUSH_ID, new OutboxFlush(serverURL, outbox)).sendToTarget();
+    }
+
+    /**
+     * Flushes the outbox after a delay that grows with every failed update, so updates that failed
+     * while connected are not kept until the next reconnect. A scheduled retry is kept.
+     */
+    void retryFlush(String serverURL, Outbox outbox) {
+        if (!mWorkerHandler.hasMessages(RETRY_ID)) {
+            long delay = mRetryBackoff.nextDelay();
+            Log.v(TAG, "Retrying failed updates in " + delay + "ms");
+            mWorkerHandler.sendMessageDelayed(mWorkerHandler.obtainMessage(RETRY_ID,
+                    new OutboxFlush(serverURL, outbox)), delay);
+        }
+    }
+
+    void cancelFlush() {
+        mWorkerHandler.removeMessages(FLUSH_ID);
+        mWorkerHandler.removeMessages(RETRY_ID);
+    }
+
+    void setUpdateListener(IUpdateListener l) {
+        mUpdateListener = l;
+    }
+
+    StateUpdateQueue getUpdateQueue() {
+        return mUpdates;
+    }
+
+    private void sendUpdates() {
+        if (!mWorkerHandler.hasMessages(SET_ID)) {
+            mWorkerHandler.sendEmptyMessage(SET_ID);
+        }
     }
 
     @Override
@@ -43,7 +121,15 @@ class RestClient extends HandlerThread {
             switch (msg.what) {
                 case GET_ID: getRequest((ItemSubscription) msg.obj);
                     break;
-                case SET_ID: putRequest((ItemModification) msg.obj);
+                case SET_ID: putPendingUpdates();
+                    break;
+                case GET_ALL_ID: getAllRequest((ItemsSubscription) msg.obj);
+                    break;
+                case FLUSH_ID: flushStep((OutboxFlush) msg.obj);
+                    break;
+                case RETRY_ID:
+                    OutboxFlush retry = (OutboxFlush) msg.obj;
+                    flush(retry.mServerURL, retry.mOutbox);
                     break;
             }
 
@@ -51,28 +137,84 @@ class RestClient extends HandlerThread {
         });
     }
 
+    private void flushStep(OutboxFlush flush) {
+        for (int i = 0; i < FLUSH_BATCH_SIZE && flush.mItems.hasNext(); i++) {
+            String item = flush.mItems.next();
+
+            // the state may have been delivered or replaced since the flush started
+            String state = flush.mOutbox.get(item);
+            if (state != null) {
+                setItemState(flush.mServerURL, new ItemState(item, state));
+            }
+        }
+
+        if (flush.mItems.hasNext()) {
+            mWorkerHandler.sendMessageDelayed(mWorkerHandler.obtainMessage(FLUSH_ID, flush), FLUSH_INTERVAL);
+        }
+    }
+
+    private void putPendingUpdates() {
+        ItemModification item;
+        while ((item = mUpdates.poll()) != null) {
+            putRequest(item);
+        }
+    }
+
     private void putRequest(ItemModification item) {
-        try {
-            OkHttpClient client = OkHttpClientFactory.getInstance().create();
+        OkHttpClient client = OkHttpClientFactory.getInstance().getClient();
 
-            MediaType PLAIN
-                    = MediaType.get("text/plain; charset=utf-8");
+        MediaType PLAIN
+                = MediaType.get("text/plain; charset=utf-8");
 
-            RequestBody body = RequestBody.create(PLAIN, item.mItemState);
-            Request request = new Request.Builder()
+        RequestBody body = RequestBody.create(PLAIN, item.mItemState);
+        final Request request;
+        try {
+            request = new Request.Builder()
                     .url(item.mServerURL + "/rest/items/" + item.mItemName + "/state")
                     .put(body)
                     .build();
-            try (Response response = client.newCall(request).execute()) {
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Failed to set state for item " + item.mItemName, e);
+            mUpdates.completed(item.mItemName, false);
+            notifyUpdateListener(item, false, false);
+            return;
+        }
+
+        client.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(@NotNull Call call, @NotNull IOException e) {
+                Log.e(TAG, "Failed to set state for item " + item.mItemName, e);
+                completed(false, true);
+            }
+
+            @Override
+            public void onResponse(@NotNull Call call, @NotNull Response response) throws IOException {
                 try (ResponseBody responseBody = response.body()) {
                     if (responseBody != null) {
                         Log.v(TAG, "set " + item.mItemName + " request response: " + responseBody.string()
                                 + "(" + response.code() + ")");
                     }
+                } finally {
+                    // the server rejected the state or item on 4xx, sending it again does not help
+                    completed(response.isSuccessful(), response.code() >= 500);
                 }
             }
-        } catch (IOException e) {
-            Log.e(TAG, "Failed to set state for item " + item.mItemName, e);
+
+            private void completed(boolean success, boolean retry) {
+                if (success) {
+                    mRetryBackoff.reset();
+                }
+                mUpdates.completed(item.mItemName, success);
+                notifyUpdateListener(item, success, retry);
+                sendUpdates();
+            }
+        });
+    }
+
+    private void notifyUpdateListener(ItemModification item, boolean success, boolean retry) {
+        IUpdateListener l = mUpdateListener;
+        if (l != null) {
+            l.updateCompleted(item.mItemName, item.mItemState, success, retry);
         }
     }
 
@@ -80,7 +222,7 @@ class RestClient extends HandlerThread {
         String itemName = item.mItemName;
         ISubscriptionListener listener = item.mListener;
 
-        OkHttpClient client = OkHttpClientFactory.getInstance().create();
+        OkHttpClient client = OkHttpClientFactory.getInstance().getClient();
         Request request = new Request.Builder()
                 .url(item.mServerURL + "/rest/items/" + itemName + "/state")
                 .build();
@@ -108,6 +250,63 @@ class RestClient extends HandlerThread {
         }
     }
 
+    private void getAllRequest(ItemsSubscription items) {
+        final HashSet<String> missing = new HashSet<>(items.mItemNames);
+        final IStateUpdateListener collector = (name, value) -> {
+            if (missing.remove(name)) {
+                items.mListener.itemUpdated(name, value);
+            }
+        };
+
+        OkHttpClient client = OkHttpClientFactory.getInstance().getClient();
+        Request request = new Request.Builder()
+                .url(items.mServerURL + "/rest/items?recursive=false&fields=name,state")
+                .build();
+
+        try (Response response = client.newCall(request).execute()) {
+            try (ResponseBody responseBody = response.body()) {
+                if (response.code() > 199 && response.code() < 300 && responseBody != null) {
+                    new ItemsParser(new BufferedReader(responseBody.charStream())).parse(collector);
+                } else {
+                    Log.e(TAG, "Failed to obtain state of all items: " + response.code());
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to obtain state of all items", e);
+        }
+
+        if (!missing.isEmpty()) {
+            Log.d(TAG, "Fetching state of items missing in the item list: " + missing);
+            for (String itemName : missing) {
+                getRequest(new ItemSubscription(items.mServerURL, items.mListener, itemName));
+            }
+        }
+    }
+
+    private static class OutboxFlush {
+        final String mServerURL;
+        final Outbox mOutbox;
+        final Iterator<String> mItems;
+
+        OutboxFlush(String serverURL, Outbox outbox) {
+            mServerURL = serverURL;
+            mOutbox = outbox;
+            mItems = outbox.getItems().iterator();
+        }
+    }
+
+    private static class ItemsSubscription {
+        final String mServerURL;
+        final ISubscriptionListener mListener;
+        final Collection<String> mItemNames;
+
+        ItemsSubscription(String serverURL, ISubscriptionListener l, Collection<String> itemNames) {
+            mServerURL = serverURL;
+            mListener = l;
+            mItemNames = itemNames;
+        }
+    }
+
     private static class ItemSubscription {
         final String mServerURL;
         final ISubscriptionListener mListener;
@@ -120,7 +319,7 @@ class RestClient extends HandlerThread {
         }
     }
 
-    private static class ItemModification {
+    static class ItemModification {
         final String mServerURL;
         final String mItemName;
         final String mItemState;
@@ -131,4 +330,15 @@ class RestClient extends HandlerThread {
             mItemName = itemState.mItemName;
         }
     }
+
+    interface IUpdateListener {
+        /**
+         * A state update has been sent.
+         *
+         * @param success whether the server accepted the update
+         * @param retry whether a failed update may succeed when sent again, e.g. after a network
+         *              error or a server error (5xx)
+         */
+        void updateCompleted(String itemName, String state, boolean success, boolean retry);
+    }
 }
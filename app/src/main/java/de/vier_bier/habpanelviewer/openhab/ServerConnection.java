@@ -10,15 +10,23 @@ import android.util.Log;
 
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import org.greenrobot.eventbus.EventBus;
+import org.greenrobot.eventbus.Subscribe;
+import org.greenrobot.eventbus.ThreadMode;
+
+import java.io.File;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 import de.vier_bier.habpanelviewer.Constants;
+import de.vier_bier.habpanelviewer.R;
 import de.vier_bier.habpanelviewer.connection.ssl.CertificateManager;
+import de.vier_bier.habpanelviewer.openhab.average.Aggregator;
 import de.vier_bier.habpanelviewer.openhab.average.AveragePropagator;
+import de.vier_bier.habpanelviewer.openhab.average.TimerWheel;
 import de.vier_bier.habpanelviewer.openhab.average.IStatePropagator;
+import de.vier_bier.habpanelviewer.status.ApplicationStatus;
 
 /**
  * Client for openHABs SSE service. Listens for item value changes.
@@ -26,12 +34,17 @@ import de.vier_bier.habpanelviewer.openhab.average.IStatePropagator;
 public class ServerConnection implements IStatePropagator {
 
     private static final String TAG = "HPV-ServerConnection";
+    // fetch the states of more items than this with a single request for all items
+    private static final int BULK_FETCH_THRESHOLD = 3;
 
     private String mServerURL;
     private String mOHVersion;
 
     private final OpenhabSseConnection mSseConnection = new OpenhabSseConnection();
     private final RestClient mRestClient = new RestClient();
+    private final Context mCtx;
+    // updates that could not be delivered, sent when the connection is established
+    private final Outbox mOutbox;
 
     private final CertificateManager.ICertChangedListener mCertListener;
     private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
@@ -46,14 +59,37 @@ public class ServerConnection implements IStatePropagator {
         }
     };
 
-    private final HashMap<String, ArrayList<IStateUpdateListener>> mSubscriptions = new HashMap<>();
-    private final HashMap<String, ArrayList<IStateUpdateListener>> mCmdSubscriptions = new HashMap<>();
-    private final HashMap<String, String> mValues = new HashMap<>();
+    // accessed from the SSE, RestClient, AveragePropagator and main threads
+    private final ItemStateStore mStore = new ItemStateStore();
+    private final ItemStateStore.Subscriptions mSubscriptions = mStore.mItemSubscriptions;
+    private final ItemStateStore.Subscriptions mCmdSubscriptions = mStore.mCmdSubscriptions;
 
-    private final HashMap<String, String> lastUpdates = new HashMap<>();
     private final AveragePropagator averagePropagator = new AveragePropagator(this);
+    private final SseConnectionListener mConnectionListener = new SseConnectionListener();
 
     public ServerConnection(Context context) {
+        mCtx = context;
+        mOutbox = new Outbox(new File(context.getFilesDir(), "outbox"));
+        mRestClient.setUpdateListener((item, state, success, retry) -> {
+            if (success) {
+                mOutbox.delivered(item, state);
+            } else if (!retry) {
+                Log.w(TAG, "Server rejected state " + state + " of " + item + ", dropping it");
+                mOutbox.delivered(item, state);
+            } else {
+                // holding the outbox lock, a newer state can not be stored before this one
+                synchronized (mOutbox) {
+                    // a newer state is sent or stored on its own
+                    if (mStore.isSentState(item, state)) {
+                        mOutbox.put(item, state);
+                    }
+                }
+                if (isSseConnected()) {
+                    mRestClient.retryFlush(mServerURL, mOutbox);
+                }
+            }
+        });
+
         mCertListener = () -> {
             Log.d(TAG, "cert added, reconnecting to server...");
 
@@ -62,7 +98,7 @@ public class ServerConnection implements IStatePropagator {
             }
         };
 
-        mSseConnection.addListener(new SseConnectionListener());
+        mSseConnection.addListener(mConnectionListener);
         mSseConnection.addItemValueListener(new SseStateUpdateListener());
 
         CertificateManager.getInstance().addCertListener(mCertListener);
@@ -71,6 +107,40 @@ public class ServerConnection implements IStatePropagator {
         f.addAction(Constants.INTENT_ACTION_SET_WITH_TIMEOUT);
 
         LocalBroadcastManager.getInstance(context).registerReceiver(mReceiver, f);
+        EventBus.getDefault().register(this);
+    }
+
+    @Subscribe(threadMode = ThreadMode.MAIN)
+    public void onMessageEvent(ApplicationStatus status) {
+        StateUpdateQueue updates = mRestClient.getUpdateQueue();
+        status.set(mCtx.getString(R.string.stateUpdates),
+                mCtx.getString(R.string.stateUpdateDetails,
+                        updates.getSentCount(),
+                        updates.getMergedCount(),
+                        updates.getFailedCount(),
+                        updates.getPendingCount(),
+                        mOutbox.size()));
+
+        ItemUpdateDispatcher dispatcher = mSseConnection.getDispatcher();
+        status.set(mCtx.getString(R.string.receivedUpdates),
+                mCtx.getString(R.string.receivedUpdateDetails,
+                        dispatcher.getDispatchedCount(),
+                        dispatcher.getCoalescedCount(),
+                        dispatcher.getDroppedCount(),
+                        dispatcher.getDepth(),
+                        dispatcher.getMaxDepth(),
+                        dispatcher.getAverageLatencyMillis(),
+                        dispatcher.getMaxLatencyMillis()));
+
+        TimerWheel timer = averagePropagator.getTimer();
+        status.set(mCtx.getString(R.string.timers),
+                mCtx.getString(R.string.timerDetails,
+                        timer.size(),
+                        timer.getFiredCount(),
+                        timer.getLagPercentile(50),
+                        timer.getLagPercentile(90),
+                        timer.getLagPercentile(99),
+                        timer.getMaxLag()));
     }
 
     public void addConnectionListener(ISseConnectionListener l) {
@@ -79,21 +149,30 @@ public class ServerConnection implements IStatePropagator {
 
     public void subscribeCommandItem(IStateUpdateListener l, String name) {
         if (name != null && !"".equals(name) && checkItemsChanged(mCmdSubscriptions, l, false, name)) {
-            String cmdItemName = mCmdSubscriptions.isEmpty() ? null : mCmdSubscriptions.keySet().iterator().next();
-            mSseConnection.setItemNames(cmdItemName, mSubscriptions.keySet().toArray(new String[0]));
-            reconnect();
+            updateSseItems();
         }
     }
 
     public void subscribeItems(IStateUpdateListener l, String... names) {
         if (checkItemsChanged(mSubscriptions, l, true, names)) {
-            String cmdItemName = mCmdSubscriptions.isEmpty() ? null : mCmdSubscriptions.keySet().iterator().next();
-            mSseConnection.setItemNames(cmdItemName, mSubscriptions.keySet().toArray(new String[0]));
+            updateSseItems();
+        }
+    }
+
+    private void updateSseItems() {
+        Set<String> cmdItemNames = mCmdSubscriptions.getItems();
+        String cmdItemName = cmdItemNames.isEmpty() ? null : cmdItemNames.iterator().next();
+        final String[] itemNames = mSubscriptions.getItems().toArray(new String[0]);
+
+        if (mSseConnection.setItemNames(cmdItemName, itemNames)) {
             reconnect();
+        } else if (isSseConnected()) {
+            // subscribed to all items, only the state of new items has to be fetched
+            mConnectionListener.fetchCurrentItemsState();
         }
     }
 
-    private boolean checkItemsChanged(HashMap<String, ArrayList<IStateUpdateListener>> subscriptions,
+    private boolean checkItemsChanged(ItemStateStore.Subscriptions subscriptions,
                                       IStateUpdateListener l, boolean initialValue, String... names) {
         final HashSet<String> currentItems = new HashSet<>();
         final HashSet<String> newItems = new HashSet<>();
@@ -107,50 +186,38 @@ public class ServerConnection implements IStatePropagator {
         }
 
         boolean itemsChanged = false;
-        synchronized (subscriptions) {
-            for (String name : new HashSet<>(subscriptions.keySet())) {
-                ArrayList<IStateUpdateListener> listeners = subscriptions.get(name);
-                if (listeners != null && listeners.contains(l) && !currentItems.contains(name)) {
-                    listeners.remove(l);
-
-                    if (listeners.isEmpty()) {
-                        itemsChanged = true;
-                        subscriptions.remove(name);
-                        mValues.remove(name);
-
-                        removedItems.add(name);
-                    }
-                }
-            }
+        for (String name : subscriptions.getItems()) {
+            if (!currentItems.contains(name) && subscriptions.remove(name, l)) {
+                itemsChanged = true;
+                mStore.removeState(name);
 
-            if (removedItems.size() > 0) {
-                Log.d(TAG, "unsubscribing items: " + removedItems.toString());
+                removedItems.add(name);
             }
+        }
 
-            for (String name : currentItems) {
-                ArrayList<IStateUpdateListener> listeners = subscriptions.get(name);
-                if (listeners == null) {
-                    itemsChanged = true;
-                    listeners = new ArrayList<>();
-                    subscriptions.put(name, listeners);
+        if (removedItems.size() > 0) {
+            Log.d(TAG, "unsubscribing items: " + removedItems.toString());
+        }
 
-                    newItems.add(name);
-                } else if (mValues.containsKey(name) && initialValue) {
-                    l.itemUpdated(name, mValues.get(name));
-                }
+        for (String name : currentItems) {
+            if (subscriptions.add(name, l)) {
+                itemsChanged = true;
 
-                if (!listeners.contains(l)) {
-                    listeners.add(l);
+                newItems.add(name);
+            } else if (initialValue) {
+                String state = mStore.getState(name);
+                if (state != null) {
+                    l.itemUpdated(name, state);
                 }
             }
+        }
 
-            if (newItems.size() > 0) {
-                Log.d(TAG, "subscribing items: " + newItems.toString());
-            }
+        if (newItems.size() > 0) {
+            Log.d(TAG, "subscribing items: " + newItems.toString());
+        }
 
-            if (subscriptions.size() > 0 && newItems.size() + removedItems.size() > 0) {
-                Log.v(TAG, "current set of items: " + subscriptions.keySet().toString());
-            }
+        if (!subscriptions.isEmpty() && newItems.size() + removedItems.size() > 0) {
+            Log.v(TAG, "current set of items: " + subscriptions.getItems().toString());
         }
 
         return itemsChanged;
@@ -176,6 +243,18 @@ public class ServerConnection implements IStatePropagator {
             Log.d(TAG, "new server URL: " + mServerURL);
         }
 
+        mSseConnection.setWildcard(prefs.getBoolean(Constants.PREF_SSE_WILDCARD, false));
+        try {
+            mSseConnection.setMaxReconnectDelay(Integer.parseInt(prefs.getString(Constants.PREF_SSE_RECONNECT_MAX, "30")) * 1000L);
+        } catch (NumberFormatException e) {
+            mSseConnection.setMaxReconnectDelay(SseConnection.RECONNECT_CAP);
+        }
+        try {
+            mSseConnection.setIdleTimeout(Integer.parseInt(prefs.getString(Constants.PREF_SSE_IDLE_TIMEOUT, "60")) * 1000L);
+        } catch (NumberFormatException e) {
+            mSseConnection.setIdleTimeout(SseConnection.IDLE_TIMEOUT);
+        }
+
         if (serverChanged || serverVersionChanged) {
             mSseConnection.setServer(mServerURL, OpenhabSseConnection.OHVersion.valueOf(mOHVersion));
         }
@@ -193,31 +272,37 @@ public class ServerConnection implements IStatePropagator {
     }
 
     private synchronized void close() {
+        // the events of the new server have to be fetched from scratch
+        mSseConnection.clearLastEventId();
         mSseConnection.disconnect();
     }
 
     public void terminate(Context context) {
+        EventBus.getDefault().unregister(this);
         CertificateManager.getInstance().removeCertListener(mCertListener);
         LocalBroadcastManager.getInstance(context).unregisterReceiver(mReceiver);
 
         averagePropagator.terminate();
         mSseConnection.dispose();
+        mOutbox.close();
         mSubscriptions.clear();
     }
 
     public String getState(String item) {
-        return mValues.get(item);
+        return mStore.getState(item);
     }
 
     public void removeFromAverage(String item) {
         averagePropagator.removeFromAverage(item);
     }
 
-    public void addStateToAverage(String item, Float state, int updateInterval) {
-        if (averagePropagator.addStateToAverage(item, state, updateInterval)) {
-            // in case this is the first value for the item propagate it
-            updateState(item, state.toString());
-        }
+    /**
+     * Adds a batch of sensor readings to the average of the item.
+     *
+     * @param times acquisition times in ms on the clock of {@link AveragePropagator#now()}
+     */
+    public void addStatesToAverage(String item, float[] states, long[] times, int count, int updateInterval, Aggregator aggregator) {
+        averagePropagator.addStatesToAverage(item, states, times, count, updateInterval, aggregator);
     }
 
     private void updateStateWithTimeout(String item, String state, String timeoutState, int timeoutInSeconds) {
@@ -230,16 +315,26 @@ public class ServerConnection implements IStatePropagator {
         updateState(item, state, false);
     }
 
+    /**
+     * Sends the state even if the item already has it, e.g. as a heartbeat.
+     */
+    public void sendState(String item, String state) {
+        updateState(item, state, true);
+    }
+
     private void updateState(String item, String state, boolean resend) {
         if (item != null && !item.isEmpty() && state != null && (resend || !state.equals(getState(item)))) {
-            if (resend || !state.equals(lastUpdates.get(item))) {
-                synchronized (lastUpdates) {
-                    lastUpdates.put(item, state);
-                }
-
+            // only one of several threads reporting the same state sends it
+            if (mStore.setSentState(item, state) || resend) {
                 if (isSseConnected()) {
                     Log.v(TAG, "Sending state update for " + item + ": " + state);
                     mRestClient.setItemState(mServerURL, new ItemState(item, state));
+
+                    // an older undelivered state must not be flushed afterwards
+                    mOutbox.replace(item, state);
+                } else {
+                    Log.v(TAG, "Storing state update for " + item + ": " + state);
+                    mOutbox.put(item, state);
                 }
             }
         }
@@ -253,10 +348,8 @@ public class ServerConnection implements IStatePropagator {
 
     public void sendCurrentValues() {
         Log.v(TAG, "Sending pending updates...");
-        synchronized (lastUpdates) {
-            for (Map.Entry<String, String> entry : lastUpdates.entrySet()) {
-                updateState(entry.getKey(), entry.getValue(), true);
-            }
+        for (Map.Entry<String, String> entry : mStore.getSentStates().entrySet()) {
+            updateState(entry.getKey(), entry.getValue(), true);
         }
         Log.v(TAG, "Pending updates sent");
     }
@@ -266,39 +359,31 @@ public class ServerConnection implements IStatePropagator {
     }
 
     private void propagateItem(String name, String value) {
-        if (!value.equals(mValues.get(name))) {
+        if (mStore.setState(name, value)) {
             propagate(mSubscriptions, name, value);
         }
     }
 
     private void propagateCommand(String name, String value) {
+        mStore.setState(name, value);
         propagate(mCmdSubscriptions, name, value);
     }
 
-    private void propagate(HashMap<String, ArrayList<IStateUpdateListener>> subscriptions, String name, String value) {
-        mValues.put(name, value);
-
+    private void propagate(ItemStateStore.Subscriptions subscriptions, String name, String value) {
         Log.v(TAG, "propagating item: " + name + "=" + value);
 
-        final ArrayList<IStateUpdateListener> listeners;
-        synchronized (subscriptions) {
-            listeners = subscriptions.get(name);
-        }
-
-        if (listeners != null) {
-            for (IStateUpdateListener l : listeners) {
-                l.itemUpdated(name, value);
-            }
+        for (IStateUpdateListener l : subscriptions.getListeners(name)) {
+            l.itemUpdated(name, value);
         }
     }
 
     private class SseStateUpdateListener implements IStateUpdateListener {
         @Override
         public void itemUpdated(String name, String value) {
-            if (mSubscriptions.containsKey(name)) {
+            if (mSubscriptions.contains(name)) {
                 propagateItem(name, value);
             }
-            if (mCmdSubscriptions.containsKey(name)) {
+            if (mCmdSubscriptions.contains(name)) {
                 propagateCommand(name, value);
             }
         }
@@ -322,10 +407,16 @@ public class ServerConnection implements IStatePropagator {
         @Override
         public void statusChanged(SseConnection.Status newStatus) {
             if (newStatus == SseConnection.Status.CONNECTED && mLastStatus != SseConnection.Status.CONNECTED) {
-                sendCurrentValues();
+                Log.v(TAG, "Sending " + mOutbox.size() + " undelivered updates...");
+                mRestClient.flush(mServerURL, mOutbox);
                 fetchCurrentItemsState();
             } else if (mLastStatus == SseConnection.Status.CONNECTED && newStatus != SseConnection.Status.CONNECTED) {
-                mValues.clear();
+                // when the stream can be resumed, the server replays the missed events, so the
+                // values are kept and only items without a state are fetched after reconnecting
+                if (!mSseConnection.canResume()) {
+                    mStore.clearStates();
+                }
+                mRestClient.cancelFlush();
                 averagePropagator.clear();
             }
             mLastStatus = newStatus;
@@ -333,17 +424,19 @@ public class ServerConnection implements IStatePropagator {
 
         private synchronized void fetchCurrentItemsState() {
             HashSet<String> missingItems = new HashSet<>();
-            synchronized (mSubscriptions) {
-                for (String item : mSubscriptions.keySet()) {
-                    if (!mValues.containsKey(item)) {
-                        missingItems.add(item);
-                    }
+            for (String item : mSubscriptions.getItems()) {
+                if (!mStore.hasState(item)) {
+                    missingItems.add(item);
                 }
             }
 
             Log.d(TAG, "Actively fetching items state");
-            for (String item : missingItems) {
-                mRestClient.getItemState(mServerURL, mListener, item);
+            if (missingItems.size() > BULK_FETCH_THRESHOLD) {
+                mRestClient.getItemStates(mServerURL, mListener, missingItems);
+            } else {
+                for (String item : missingItems) {
+                    mRestClient.getItemState(mServerURL, mListener, item);
+                }
             }
         }
     }
@@ -4,6 +4,7 @@ import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
 
+import org.greenrobot.eventbus.EventBus;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -25,6 +26,12 @@ import okhttp3.sse.EventSources;
 public class SseConnection implements NetworkTracker.INetworkListener, CredentialManager.CredentialsListener {
     private static final String TAG = "HPV-SseConnection";
 
+    // first reconnect delay and default for the maximum delay in ms
+    private static final long RECONNECT_BASE = 500;
+    static final long RECONNECT_CAP = 30000;
+    // default time without any data after which a connection is considered dead in ms
+    static final long IDLE_TIMEOUT = 60000;
+
     String mUrl;
 
     private boolean mNetworkConnected;
@@ -33,12 +40,26 @@ public class SseConnection implements NetworkTracker.INetworkListener, Credentia
     volatile Status mStatus = Status.NOT_CONNECTED;
     private EventSource mEventSource;
 
+    private final Backoff mBackoff = new Backoff(RECONNECT_BASE, RECONNECT_CAP);
+    private Handler mHandler;
+    private final Runnable mReconnect = this::connect;
+    // id of the last received event, sent as Last-Event-ID to resume the stream after reconnecting
+    private volatile String mLastEventId;
+
+    private final Runnable mWatchdog = this::checkIdle;
+    private volatile long mIdleTimeout = IDLE_TIMEOUT;
+    // time of the last data received on the connection in ms
+    private volatile long mLastActivity;
+    // whether the server sends keep alive events on the current connection
+    private volatile boolean mKeepAlive;
+
     SseConnection() {
     }
 
     void setServerUrl(String url) {
         if (mUrl == null && url != null || mUrl != null && !mUrl.equals(url)) {
             mUrl = url;
+            mLastEventId = null;
 
             if (mStatus.isConnecting() || mStatus == Status.CONNECTED) {
                 disconnect();
@@ -89,9 +110,46 @@ public class SseConnection implements NetworkTracker.INetworkListener, Credentia
         setNetworkConnected(true);
     }
 
+    /**
+     * Sets the maximum delay between two reconnect attempts.
+     */
+    void setMaxReconnectDelay(long delayMillis) {
+        mBackoff.setCap(delayMillis);
+    }
+
+    /**
+     * Sets the time without any data after which the connection is reestablished, 0 disables the
+     * check. The check only applies when the server sends keep alive events, as otherwise a quiet
+     * connection can not be told from a dead one.
+     */
+    void setIdleTimeout(long timeoutMillis) {
+        mIdleTimeout = timeoutMillis;
+
+        if (mStatus == Status.CONNECTED) {
+            scheduleWatchdog(timeoutMillis);
+        }
+    }
+
+    /**
+     * Whether the server sends event ids, so the event stream is resumed after reconnecting and
+     * events missed in between are replayed.
+     */
+    boolean canResume() {
+        return mLastEventId != null;
+    }
+
+    /**
+     * Forgets the position in the event stream, so the next connection starts a new stream.
+     */
+    void clearLastEventId() {
+        mLastEventId = null;
+    }
+
     synchronized void connect() {
         Log.v(TAG, "SseConnection.connect");
         Log.v(TAG, "mEventSource=" + (mEventSource == null ? "null" : mEventSource.hashCode()));
+        cancelReconnect();
+        cancelWatchdog();
 
         if (mEventSource != null) {
             EventSource oldSource = mEventSource;
@@ -109,7 +167,12 @@ public class SseConnection implements NetworkTracker.INetworkListener, Credentia
             OkHttpClient client = createConnection();
             EventSourceListener sseHandler = new SSEHandler();
             try {
-                Request request = new Request.Builder().url(buildUrl()).build();
+                Request.Builder builder = new Request.Builder().url(buildUrl());
+                final String lastEventId = mLastEventId;
+                if (lastEventId != null) {
+                    builder.header("Last-Event-ID", lastEventId);
+                }
+                Request request = builder.build();
                 mEventSource = EventSources.createFactory(client).newEventSource(request, sseHandler);
 
                 Log.v(TAG, "mEventSource = " + mEventSource.request().url().toString());
@@ -121,7 +184,7 @@ public class SseConnection implements NetworkTracker.INetworkListener, Credentia
     }
 
     OkHttpClient createConnection() {
-        return OkHttpClientFactory.getInstance().create();
+        return OkHttpClientFactory.getInstance().getStreamingClient();
     }
 
     String buildUrl() {
@@ -129,6 +192,9 @@ public class SseConnection implements NetworkTracker.INetworkListener, Credentia
     }
 
     synchronized void disconnect() {
+        cancelReconnect();
+        cancelWatchdog();
+
         if (mEventSource != null) {
             EventSource oldSource = mEventSource;
             mEventSource = null;
@@ -198,20 +264,83 @@ public class SseConnection implements NetworkTracker.INetworkListener, Credentia
         }
     }
 
-    public void postDelayed(Runnable r, long delay) {
-        final Handler handler = new Handler(Looper.getMainLooper());
-        handler.postDelayed(SseConnection.this::connect, delay);
+    public synchronized void postDelayed(Runnable r, long delay) {
+        if (mHandler == null) {
+            mHandler = new Handler(Looper.getMainLooper());
+        }
+        mHandler.postDelayed(r, delay);
+    }
+
+    private synchronized void cancelReconnect() {
+        if (mHandler != null) {
+            mHandler.removeCallbacks(mReconnect);
+        }
+    }
+
+    private synchronized void scheduleWatchdog(long delay) {
+        cancelWatchdog();
+
+        if (delay > 0) {
+            postWatchdog(mWatchdog, delay);
+        }
+    }
+
+    // separate from postDelayed, so tests can run the idle check on demand
+    void postWatchdog(Runnable r, long delay) {
+        postDelayed(r, delay);
+    }
+
+    private synchronized void cancelWatchdog() {
+        if (mHandler != null) {
+            mHandler.removeCallbacks(mWatchdog);
+        }
+    }
+
+    private synchronized void checkIdle() {
+        final long timeout = mIdleTimeout;
+        if (mStatus != Status.CONNECTED || timeout <= 0) {
+            return;
+        }
+
+        final long idle = now() - mLastActivity;
+        if (!mKeepAlive || idle < timeout) {
+            scheduleWatchdog(mKeepAlive ? timeout - idle : timeout);
+            return;
+        }
+
+        // e.g. after a Wi-Fi roam or NAT timeout the connection is dead without being closed
+        Log.w(TAG, "no data received for " + idle + " ms, reconnecting");
+        EventBus.getDefault().post(new StaleConnectionEvent(idle));
+        connect();
+    }
+
+    private static long now() {
+        return System.nanoTime() / 1000000;
+    }
+
+    /**
+     * Posted when a connection has been found dead because no data has been received.
+     */
+    public static class StaleConnectionEvent {
+        // time since the last data has been received in ms
+        public final long mIdleMillis;
+
+        StaleConnectionEvent(long idleMillis) {
+            mIdleMillis = idleMillis;
+        }
     }
 
     private class SSEHandler extends EventSourceListener {
-        private int failureCount = 0;
         SSEHandler() { }
 
         @Override
         public void onOpen(@NotNull EventSource eventSource, @NotNull Response response) {
             Log.v(TAG, "SSEHandler.onOpen: mEventSource=" + (mEventSource == null ? "null" : mEventSource.hashCode()));
 
+            mLastActivity = now();
+            mKeepAlive = false;
             setStatus(Status.CONNECTED);
+            scheduleWatchdog(mIdleTimeout);
         }
 
         @Override
@@ -227,8 +356,17 @@ public class SseConnection implements NetworkTracker.INetworkListener, Credentia
 
         @Override
         public void onEvent(@NotNull EventSource eventSource, @Nullable String id, @Nullable String type, @NotNull String data) {
+            mLastActivity = now();
+            if ("alive".equalsIgnoreCase(type) || data.contains("\"ALIVE\"")) {
+                mKeepAlive = true;
+            }
+
+            if (id != null && !id.isEmpty()) {
+                mLastEventId = id;
+            }
+
             if ("message".equals(type)) {
-                failureCount = 0;
+                mBackoff.reset();
 
                 synchronized (mListeners) {
                     for (ISseListener l : mListeners) {
@@ -254,21 +392,10 @@ public class SseConnection implements NetworkTracker.INetworkListener, Credentia
         }
 
         private void triggerReconnect() {
-            failureCount++;
-
-            int delay = 500;
-
-            if (failureCount > 100) {
-                delay = 5000;
-            } else if (failureCount > 50) {
-                delay = 2000;
-            } else if (failureCount > 30) {
-                delay = 1000;
-            } else if (failureCount > 10) {
-                delay = 1000;
-            }
+            long delay = mBackoff.nextDelay();
+            Log.v(TAG, "reconnecting in " + delay + " ms");
 
-            postDelayed(SseConnection.this::connect, delay);
+            postDelayed(mReconnect, delay);
         }
     }
 }
@@ -0,0 +1,88 @@
+package de.vier_bier.habpanelviewer.openhab;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Queue of item state updates to be sent to the server. Only the latest state of an item is kept:
+ * an update replaces the pending update of the same item, so a burst of updates is sent as a
+ * single request. At most a fixed number of updates is in flight, and never two of the same
+ * item, so updates of an item can not overtake each other.
+ *
+ * Instances are thread safe.
+ */
+class StateUpdateQueue {
+    private final int mMaxInFlight;
+
+    // pending updates by item name, in the order the items have been updated first
+    private final LinkedHashMap<String, RestClient.ItemModification> mPending = new LinkedHashMap<>();
+    private final HashSet<String> mInFlight = new HashSet<>();
+
+    private long mMergedCount;
+    private long mSentCount;
+    private long mFailedCount;
+
+    StateUpdateQueue(int maxInFlight) {
+        mMaxInFlight = maxInFlight;
+    }
+
+    synchronized void offer(RestClient.ItemModification update) {
+        if (mPending.put(update.mItemName, update) != null) {
+            mMergedCount++;
+        }
+    }
+
+    /**
+     * Takes the next update that can be sent and marks its item as in flight.
+     *
+     * @return the update or null if the in-flight window is full or all pending items are in flight
+     */
+    synchronized RestClient.ItemModification poll() {
+        if (mInFlight.size() >= mMaxInFlight) {
+            return null;
+        }
+
+        Iterator<RestClient.ItemModification> i = mPending.values().iterator();
+        while (i.hasNext()) {
+            RestClient.ItemModification update = i.next();
+            if (mInFlight.add(update.mItemName)) {
+                i.remove();
+                return update;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Marks the update of the given item as completed, so the next update of this item can be sent.
+     */
+    synchronized void completed(String itemName, boolean success) {
+        mInFlight.remove(itemName);
+
+        if (success) {
+            mSentCount++;
+        } else {
+            mFailedCount++;
+        }
+    }
+
+    synchronized int getPendingCount() {
+        return mPending.size();
+    }
+
+    /**
+     * @return the number of updates that have been replaced by a newer update before being sent
+     */
+    synchronized long getMergedCount() {
+        return mMergedCount;
+    }
+
+    synchronized long getSentCount() {
+        return mSentCount;
+    }
+
+    synchronized long getFailedCount() {
+        return mFailedCount;
+    }
+}
@@ -0,0 +1,129 @@
+package de.vier_bier.habpanelviewer.openhab.average;
+
+import java.util.Arrays;
+
+/**
+ * Functions that aggregate the samples of an interval into a single value.
+ */
+public enum Aggregator {
+    MEAN {
+        @Override
+        double aggregate(Window w) {
+            return w.mTotal / w.mCount;
+        }
+    },
+    MIN {
+        @Override
+        double aggregate(Window w) {
+            return w.mMin;
+        }
+    },
+    MAX {
+        @Override
+        double aggregate(Window w) {
+            return w.mMax;
+        }
+    },
+    LAST {
+        @Override
+        double aggregate(Window w) {
+            return w.mLast;
+        }
+    },
+    COUNT {
+        @Override
+        double aggregate(Window w) {
+            return w.mCount;
+        }
+    },
+    /**
+     * Exponentially weighted moving average with the interval as time constant.
+     */
+    EWMA {
+        @Override
+        double aggregate(Window w) {
+            return w.mEwma;
+        }
+    },
+    P50 {
+        @Override
+        double aggregate(Window w) {
+            return w.percentile(50);
+        }
+    },
+    P95 {
+        @Override
+        double aggregate(Window w) {
+            return w.percentile(95);
+        }
+    };
+
+    abstract double aggregate(Window w);
+
+    /**
+     * @return the aggregator with the given name or MEAN if there is none
+     */
+    public static Aggregator fromString(String name) {
+        try {
+            return valueOf(name);
+        } catch (IllegalArgumentException | NullPointerException e) {
+            return MEAN;
+        }
+    }
+
+    /**
+     * The samples of an interval, collected in a single pass over the buckets of an {@link Average}.
+     *
+     * Percentiles are computed from the values sampled in the buckets, each weighted by the number
+     * of values it represents. They are exact as long as no bucket holds more than
+     * {@link Average#SAMPLES} values.
+     */
+    static class Window {
+        final float[] mSamples = new float[Average.BUCKETS * Average.SAMPLES];
+        final double[] mWeights = new double[Average.BUCKETS * Average.SAMPLES];
+        int mSampleCount;
+
+        int mCount;
+        double mTotal;
+        double mMin = Double.MAX_VALUE;
+        double mMax = -Double.MAX_VALUE;
+        double mLast;
+        double mEwma;
+
+        void addBucket(double sum, int count, double min, double max, float[] samples, int offset) {
+            final int stored = Math.min(count, Average.SAMPLES);
+            for (int i = 0; i < stored; i++) {
+                mSamples[mSampleCount] = samples[offset + i];
+                mWeights[mSampleCount] = count / (double) stored;
+                mSampleCount++;
+            }
+
+            mCount += count;
+            mTotal += sum;
+            mMin = Math.min(mMin, min);
+            mMax = Math.max(mMax, max);
+        }
+
+        double percentile(int percentile) {
+            // sorts the sample positions by value: the float bits, made sortable as int, are
+            // stored in the upper half and the position in the lower half
+            final long[] keys = new long[mSampleCount];
+            for (int i = 0; i < mSampleCount; i++) {
+                final int bits = Float.floatToIntBits(mSamples[i]);
+                keys[i] = ((long) (bits ^ ((bits >> 31) & 0x7fffffff)) << 32) | i;
+            }
+            Arrays.sort(keys);
+
+            final double rank = mCount * percentile / 100.0;
+            double seen = 0;
+            for (long key : keys) {
+                final int i = (int) key;
+                seen += mWeights[i];
+                if (seen >= rank) {
+                    return mSamples[i];
+                }
+            }
+            return mSamples[(int) keys[keys.length - 1]];
+        }
+    }
+}
@@ -1,103 +1,219 @@
 package de.vier_bier.habpanelviewer.openhab.average;
 
-import androidx.annotation.NonNull;
-
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.concurrent.Delayed;
-import java.util.concurrent.TimeUnit;
+import java.util.Arrays;
+import java.util.Random;
 
 /**
- * Numeric delayed average.
+ * Numeric aggregate over a time interval.
+ *
+ * Samples are pre-aggregated into a fixed number of time buckets covering the interval, so adding
+ * and expiring samples is O(1) and the memory used does not depend on the sample rate. The value
+ * is computed by the {@link Aggregator} in a single pass over the buckets. For percentiles every
+ * bucket keeps a uniform random sample of at most {@link #SAMPLES} of its values.
  */
-abstract class Average<R extends Number> implements Delayed {
-    private final ArrayList<Sample<R>> samples = new ArrayList<>();
+abstract class Average {
+    static final int BUCKETS = 64;
+    // values sampled per bucket
+    static final int SAMPLES = 8;
+
     private final String itemName;
 
+    // ring of buckets, a bucket holds the samples of one slot (time / bucketMillis)
+    private final long[] slots = new long[BUCKETS];
+    private final double[] sums = new double[BUCKETS];
+    private final int[] counts = new int[BUCKETS];
+    private final float[] mins = new float[BUCKETS];
+    private final float[] maxs = new float[BUCKETS];
+    // reservoir of each bucket, holds min(count, SAMPLES) values
+    private final float[] samples = new float[BUCKETS * SAMPLES];
+    private final Random random = new Random();
+    // slot of the oldest bucket that may still hold samples
+    private long oldestSlot;
+
+    private float last;
+    private double ewma;
+    private long ewmaTime = -1;
+    private Aggregator aggregator = Aggregator.MEAN;
+
     private int delayInMillis;
-    R total;
+    private long bucketMillis;
 
-    private long origin = System.currentTimeMillis();
+    // propagates the average once per interval
+    TimerWheel.Timeout mTimeout;
 
-    Average(String item, int interval, R zero) {
+    Average(String item, int interval) {
         itemName = item;
         delayInMillis = interval * 1000;
-        total = zero;
-
-        resetTime();
+        bucketMillis = bucketMillis(delayInMillis);
+        Arrays.fill(slots, -1);
     }
 
-    public void add(R state) {
-        Sample<R> newSample = new Sample<>(state);
+    public void add(float state) {
+        add(state, now());
+    }
 
-        synchronized (samples) {
-            samples.add(newSample);
+    /**
+     * Adds a batch of samples in their order of acquisition.
+     *
+     * @param times acquisition times in ms on the clock of {@link #now()}
+     */
+    synchronized void addAll(float[] states, long[] times, int count) {
+        for (int i = 0; i < count; i++) {
+            add(states[i], times[i]);
         }
-        addToTotal(newSample.getValue());
     }
 
-    public String getAverage() {
-        removeOldSamples(System.currentTimeMillis());
+    synchronized void add(float state, long time) {
+        final long slot = time / bucketMillis;
+        expire(slot);
+        if (slot < oldestSlot) {
+            // older than the interval, e.g. delivered late from a sensor batch
+            return;
+        }
 
-        R avg;
-        synchronized (samples) {
-            if (samples.isEmpty()) {
-                return null;
-            }
+        addToBucket(slot, state);
 
-            avg = divideTotal(samples.size());
+        if (time >= ewmaTime) {
+            last = state;
+        }
+        if (ewmaTime < 0) {
+            ewma = state;
+        } else {
+            final double alpha = 1 - Math.exp(-Math.max(0, time - ewmaTime) / (double) delayInMillis);
+            ewma += alpha * (state - ewma);
         }
-        return String.valueOf(avg);
+        ewmaTime = Math.max(ewmaTime, time);
     }
 
-    private void removeOldSamples(long time) {
-        synchronized (samples) {
-            Iterator<Sample<R>> i = samples.iterator();
-            Sample<R> s;
-            while (i.hasNext()) {
-                s = i.next();
+    public String getValue() {
+        return getValue(now());
+    }
 
-                if (s.getTime() < time - delayInMillis) {
-                    i.remove();
-                    removeFromTotal(s.getValue());
-                } else {
-                    return;
-                }
+    /**
+     * @return monotonic time in ms, not affected by changes of the system clock
+     */
+    static long now() {
+        return System.nanoTime() / 1000000;
+    }
+
+    synchronized String getValue(long time) {
+        expire(time / bucketMillis);
+
+        final Aggregator.Window w = new Aggregator.Window();
+        for (int i = 0; i < BUCKETS; i++) {
+            if (slots[i] >= 0) {
+                w.addBucket(sums[i], counts[i], mins[i], maxs[i], samples, i * SAMPLES);
             }
         }
+        if (w.mCount == 0) {
+            return null;
+        }
+
+        w.mLast = last;
+        w.mEwma = ewma;
+        return toState(aggregator.aggregate(w), aggregator);
     }
 
-    protected abstract void removeFromTotal(R value);
+    protected abstract String toState(double value, Aggregator aggregator);
 
-    protected abstract void addToTotal(R value);
+    synchronized void setAggregator(Aggregator a) {
+        aggregator = a;
+    }
 
-    protected abstract R divideTotal(int count);
+    private void addToBucket(long slot, float state) {
+        final int idx = (int) (slot % BUCKETS);
+        if (slots[idx] != slot) {
+            // the bucket is new or its samples have expired
+            slots[idx] = slot;
+            sums[idx] = state;
+            counts[idx] = 1;
+            mins[idx] = state;
+            maxs[idx] = state;
+            samples[idx * SAMPLES] = state;
+        } else {
+            sums[idx] += state;
+            final int count = ++counts[idx];
+            mins[idx] = Math.min(mins[idx], state);
+            maxs[idx] = Math.max(maxs[idx], state);
 
-    String getItemName() {
-        return itemName;
+            // reservoir sampling, every value of the bucket is kept with the same probability
+            final int pos = count <= SAMPLES ? count - 1 : random.nextInt(count);
+            if (pos < SAMPLES) {
+                samples[idx * SAMPLES + pos] = state;
+            }
+        }
     }
 
-    void resetTime() {
-        origin = System.currentTimeMillis();
-    }
+    private void mergeIntoBucket(long slot, double sum, int count, float min, float max,
+                                 float[] srcSamples, int srcOffset) {
+        final int idx = (int) (slot % BUCKETS);
+        if (slots[idx] != slot) {
+            slots[idx] = slot;
+            sums[idx] = sum;
+            counts[idx] = count;
+            mins[idx] = min;
+            maxs[idx] = max;
+            System.arraycopy(srcSamples, srcOffset, samples, idx * SAMPLES, SAMPLES);
+            return;
+        }
 
-    @Override
-    public long getDelay(@NonNull TimeUnit timeUnit) {
-        return timeUnit.convert(delayInMillis - (System.currentTimeMillis() - origin), TimeUnit.MILLISECONDS);
+        // draws the merged reservoir from both reservoirs, weighted by the values they represent
+        final float[] own = Arrays.copyOfRange(samples, idx * SAMPLES, (idx + 1) * SAMPLES);
+        final int ownStored = Math.min(counts[idx], SAMPLES);
+        final int srcStored = Math.min(count, SAMPLES);
+        final double ownWeight = counts[idx] / (double) ownStored;
+        final double srcWeight = count / (double) srcStored;
+        int ownPos = 0;
+        int srcPos = 0;
+        for (int i = 0; i < Math.min(counts[idx] + count, SAMPLES); i++) {
+            final double ownLeft = (ownStored - ownPos) * ownWeight;
+            final double srcLeft = (srcStored - srcPos) * srcWeight;
+            if (random.nextDouble() * (ownLeft + srcLeft) < ownLeft) {
+                samples[idx * SAMPLES + i] = own[ownPos++];
+            } else {
+                samples[idx * SAMPLES + i] = srcSamples[srcOffset + srcPos++];
+            }
+        }
+
+        sums[idx] += sum;
+        counts[idx] += count;
+        mins[idx] = Math.min(mins[idx], min);
+        maxs[idx] = Math.max(maxs[idx], max);
     }
 
-    @Override
-    public int compareTo(@NonNull Delayed delayed) {
-        if (delayed == this) {
-            return 0;
+    // removes the buckets that are older than the interval ending in the given slot
+    private void expire(long currentSlot) {
+        final long firstSlot = currentSlot - BUCKETS + 1;
+        if (firstSlot - oldestSlot >= BUCKETS) {
+            // all buckets are outdated
+            Arrays.fill(slots, -1);
+        } else {
+            for (long slot = oldestSlot; slot < firstSlot; slot++) {
+                final int idx = (int) (slot % BUCKETS);
+                if (slots[idx] == slot) {
+                    slots[idx] = -1;
+                }
+            }
         }
+        oldestSlot = Math.max(oldestSlot, firstSlot);
+    }
+
+    private static long bucketMillis(int delayInMillis) {
+        return Math.max(1, (delayInMillis + BUCKETS - 1) / BUCKETS);
+    }
 
-        return Long.compare(getDelay(TimeUnit.MILLISECONDS), delayed.getDelay(TimeUnit.MILLISECONDS));
+    String getItemName() {
+        return itemName;
     }
 
-    boolean setInterval(int interval) {
+    synchronized int getIntervalMillis() {
+        return delayInMillis;
+    }
+
+    synchronized boolean setInterval(int interval) {
         if (delayInMillis != interval * 1000) {
             delayInMillis = interval * 1000;
+            rebucket(bucketMillis(delayInMillis));
 
             return true;
         }
@@ -105,6 +221,37 @@ abstract class Average<R extends Number> implements Delayed {
         return false;
     }
 
+    // moves the samples into buckets of the new size, keeping their approximate time
+    private void rebucket(long newBucketMillis) {
+        final long[] oldSlots = slots.clone();
+        final double[] oldSums = sums.clone();
+        final int[] oldCounts = counts.clone();
+        final float[] oldMins = mins.clone();
+        final float[] oldMaxs = maxs.clone();
+        final float[] oldSamples = samples.clone();
+        final long oldBucketMillis = bucketMillis;
+
+        Arrays.fill(slots, -1);
+        bucketMillis = newBucketMillis;
+
+        long newest = -1;
+        for (long slot : oldSlots) {
+            newest = Math.max(newest, slot);
+        }
+        if (newest < 0) {
+            oldestSlot = 0;
+            return;
+        }
+
+        oldestSlot = Math.max(0, newest * oldBucketMillis / newBucketMillis - BUCKETS + 1);
+        for (int i = 0; i < BUCKETS; i++) {
+            final long slot = oldSlots[i] * oldBucketMillis / newBucketMillis;
+            if (oldSlots[i] >= 0 && slot >= oldestSlot) {
+                mergeIntoBucket(slot, oldSums[i], oldCounts[i], oldMins[i], oldMaxs[i], oldSamples, i * SAMPLES);
+            }
+        }
+    }
+
     @Override
     public boolean equals(Object obj) {
         return obj instanceof Average && itemName.equals(((Average) obj).itemName);
@@ -1,37 +1,29 @@
 package de.vier_bier.habpanelviewer.openhab.average;
 
 import java.util.HashMap;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.DelayQueue;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
-
-import de.vier_bier.habpanelviewer.openhab.FutureState;
 
 /**
- * Thread that does cyclic propagation of state averages or timed state updates
+ * Does cyclic propagation of state averages or timed state updates
  */
-public class AveragePropagator extends Thread {
+public class AveragePropagator {
     private final IStatePropagator mStatePropagator;
-    private final AtomicBoolean mRunning = new AtomicBoolean(true);
+    private final TimerWheel mTimer = new TimerWheel("AveragePropagator");
 
-    private final BlockingQueue<Average> mAvgQueue = new DelayQueue<>();
     private final HashMap<String, Average> mAverages = new HashMap<>();
-
-    private final BlockingQueue<FutureState> mFutureStateQueue = new DelayQueue<>();
     private final HashMap<String, FutureState> mFutureStates = new HashMap<>();
 
     public AveragePropagator(IStatePropagator statePropagator) {
-        super("AveragePropagator");
-        setDaemon(true);
-
         mStatePropagator = statePropagator;
-        start();
+        mTimer.start();
     }
 
-
     public void clear() {
-        mAverages.clear();
+        synchronized (mAverages) {
+            for (Average avg : mAverages.values()) {
+                mTimer.cancel(avg.mTimeout);
+            }
+            mAverages.clear();
+        }
     }
 
     public void setStateIn(String item, String state, int timeout) {
@@ -39,80 +31,123 @@ public class AveragePropagator extends Thread {
             synchronized (mFutureStates) {
                 FutureState futureState = mFutureStates.get(item);
 
-                if (futureState == null) {
-                    futureState = new FutureState(item, timeout, state);
+                if (futureState == null || !futureState.hasState(state)) {
+                    if (futureState != null) {
+                        mTimer.cancel(futureState.mTimeout);
+                    }
+                    futureState = new FutureState(item, state);
                     mFutureStates.put(item, futureState);
-                } else {
-                    mFutureStateQueue.remove(futureState);
-                    futureState.resetTime();
                 }
-                mFutureStateQueue.add(futureState);
+                mTimer.schedule(futureState.mTimeout, timeout * 1000L);
             }
         }
     }
 
     public void removeFromAverage(String item) {
-        FloatAverage avg = (FloatAverage) mAverages.remove(item);
+        synchronized (mAverages) {
+            Average avg = mAverages.remove(item);
 
-        if (avg != null) {
-            mAvgQueue.remove(avg);
+            if (avg != null) {
+                mTimer.cancel(avg.mTimeout);
+            }
         }
     }
 
-    public boolean addStateToAverage(String item, Float state, int updateInterval) {
+    /**
+     * Adds a batch of states in one call. If the item had no average before, the aggregate of the
+     * batch is propagated immediately instead of after the first interval.
+     *
+     * @param times acquisition times in ms on the clock of {@link #now()}
+     * @return whether the item had no average before
+     */
+    public boolean addStatesToAverage(String item, float[] states, long[] times, int count, int updateInterval, Aggregator aggregator) {
         boolean isFirstValue = false;
 
-        if (item != null && !item.isEmpty() && state != null) {
-            FloatAverage avg = (FloatAverage) mAverages.get(item);
-
-            if (avg == null) {
-                isFirstValue = true;
-                avg = new FloatAverage(item, updateInterval);
-                mAverages.put(item, avg);
-                mAvgQueue.add(avg);
-            } else if (avg.setInterval(updateInterval)) {
-                // the update interval changed
-                mAvgQueue.remove(avg);
-                mAvgQueue.add(avg);
+        if (item != null && !item.isEmpty() && count > 0) {
+            Average avg;
+            synchronized (mAverages) {
+                avg = mAverages.get(item);
+
+                if (avg == null) {
+                    isFirstValue = true;
+                    final Average newAvg = new FloatAverage(item, updateInterval);
+                    newAvg.setAggregator(aggregator);
+                    newAvg.mTimeout = new TimerWheel.Timeout(() -> propagate(newAvg));
+                    mAverages.put(item, newAvg);
+                    mTimer.schedule(newAvg.mTimeout, newAvg.getIntervalMillis());
+                    avg = newAvg;
+                } else if (avg.setInterval(updateInterval)) {
+                    // the update interval changed
+                    mTimer.schedule(avg.mTimeout, avg.getIntervalMillis());
+                }
+                avg.setAggregator(aggregator);
             }
 
-            avg.add(state);
+            avg.addAll(states, times, count);
+
+            if (isFirstValue) {
+                String value = avg.getValue();
+                if (value != null) {
+                    mStatePropagator.updateState(item, value);
+                }
+            }
         }
 
         return isFirstValue;
     }
 
-    @Override
-    public void run() {
-        while (mRunning.get()) {
-            try {
-                // first get all averages that are due in the next second and propagate them
-                Average a;
-                while ((a = mAvgQueue.poll(1, TimeUnit.SECONDS)) != null) {
-                    String avgValue = a.getAverage();
-                    if (avgValue != null) {
-                        mStatePropagator.updateState(a.getItemName(), avgValue);
-                    }
+    /**
+     * @return the current time in ms on the clock used for the acquisition times of states
+     */
+    public static long now() {
+        return Average.now();
+    }
 
-                    a.resetTime();
-                    mAvgQueue.add(a);
-                }
+    private void propagate(Average avg) {
+        String avgValue = avg.getValue();
+        if (avgValue != null) {
+            mStatePropagator.updateState(avg.getItemName(), avgValue);
+        }
 
-                // we get here approximately every second
-                FutureState futureState;
-                synchronized (mFutureStates) {
-                    while ((futureState = mFutureStateQueue.poll(1, TimeUnit.MILLISECONDS)) != null) {
-                        mStatePropagator.updateState(futureState.getItemName(), futureState.getItemState());
-                        mFutureStates.remove(futureState.getItemName());
-                    }
-                }
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
+        synchronized (mAverages) {
+            if (mAverages.get(avg.getItemName()) == avg) {
+                mTimer.schedule(avg.mTimeout, avg.getIntervalMillis());
             }
         }
     }
 
+    public TimerWheel getTimer() {
+        return mTimer;
+    }
+
     public void terminate() {
-        mRunning.set(false);
+        mTimer.terminate();
+    }
+
+    private class FutureState implements Runnable {
+        private final String mItem;
+        private final String mState;
+        private final TimerWheel.Timeout mTimeout = new TimerWheel.Timeout(this);
+
+        FutureState(String item, String state) {
+            mItem = item;
+            mState = state;
+        }
+
+        boolean hasState(String state) {
+            return mState == null ? state == null : mState.equals(state);
+        }
+
+        @Override
+        public void run() {
+            synchronized (mFutureStates) {
+                // the timeout has been reset or replaced by another state while it expired
+                if (mTimer.isScheduled(mTimeout) || mFutureStates.get(mItem) != this) {
+                    return;
+                }
+                mFutureStates.remove(mItem);
+            }
+            mStatePropagator.updateState(mItem, mState);
+        }
     }
 }
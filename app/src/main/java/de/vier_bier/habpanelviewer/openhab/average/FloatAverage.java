@@ -1,27 +1,18 @@
 package de.vier_bier.habpanelviewer.openhab.average;
 
 /**
- * Float average.
+ * Float aggregate.
  */
-public class FloatAverage extends Average<Float> {
+public class FloatAverage extends Average {
     public FloatAverage(String item, int interval) {
-        super(item, interval, 0f);
-
-        resetTime();
-    }
-
-    @Override
-    public void removeFromTotal(Float value) {
-        total = total - value;
-    }
-
-    @Override
-    public void addToTotal(Float value) {
-        total = total + value;
+        super(item, interval);
     }
 
     @Override
-    public Float divideTotal(int count) {
-        return total / count;
+    protected String toState(double value, Aggregator aggregator) {
+        if (aggregator == Aggregator.COUNT) {
+            return String.valueOf(Math.round(value));
+        }
+        return String.valueOf((float) value);
     }
 }
@@ -0,0 +1,219 @@
+package de.vier_bier.habpanelviewer.openhab.average;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Hashed wheel timer with a resolution of one millisecond.
+ *
+ * Timeouts are kept in doubly linked lists, one per wheel bucket, so scheduling, rescheduling and
+ * cancelling are O(1). The timer thread sleeps until the earliest deadline instead of ticking, and
+ * runs the expired tasks on its own thread. The lag between the deadline and the actual execution
+ * of the last tasks is recorded.
+ */
+public class TimerWheel extends Thread {
+    private static final String TAG = "HPV-TimerWheel";
+
+    private static final int BUCKETS = 512;
+    private static final int MASK = BUCKETS - 1;
+    private static final int LAG_SAMPLES = 256;
+
+    private final Timeout[] mBuckets = new Timeout[BUCKETS];
+    private final long mStartNanos = System.nanoTime();
+    // last tick that has been processed
+    private long mTick;
+    private int mCount;
+    private boolean mRunning = true;
+
+    private final int[] mLags = new int[LAG_SAMPLES];
+    private long mFiredCount;
+    private int mMaxLag;
+
+    public TimerWheel(String name) {
+        super(name);
+        setDaemon(true);
+    }
+
+    /**
+     * Schedules the timeout, it is rescheduled if it is already pending.
+     */
+    public synchronized void schedule(Timeout t, long delayMillis) {
+        unlink(t);
+
+        t.mDeadline = Math.max(now() + Math.max(0, delayMillis), mTick + 1);
+        final int idx = (int) (t.mDeadline & MASK);
+        t.mNext = mBuckets[idx];
+        if (t.mNext != null) {
+            t.mNext.mPrev = t;
+        }
+        mBuckets[idx] = t;
+        t.mScheduled = true;
+        mCount++;
+
+        notifyAll();
+    }
+
+    /**
+     * @return whether the timeout has been pending
+     */
+    public synchronized boolean cancel(Timeout t) {
+        return unlink(t);
+    }
+
+    public synchronized boolean isScheduled(Timeout t) {
+        return t.mScheduled;
+    }
+
+    public synchronized int size() {
+        return mCount;
+    }
+
+    public synchronized void terminate() {
+        mRunning = false;
+        notifyAll();
+    }
+
+    private boolean unlink(Timeout t) {
+        if (!t.mScheduled) {
+            return false;
+        }
+
+        if (t.mPrev != null) {
+            t.mPrev.mNext = t.mNext;
+        } else {
+            mBuckets[(int) (t.mDeadline & MASK)] = t.mNext;
+        }
+        if (t.mNext != null) {
+            t.mNext.mPrev = t.mPrev;
+        }
+        t.mPrev = null;
+        t.mNext = null;
+        t.mScheduled = false;
+        mCount--;
+
+        return true;
+    }
+
+    @Override
+    public void run() {
+        final ArrayList<Timeout> expired = new ArrayList<>();
+
+        while (true) {
+            synchronized (this) {
+                while (mRunning && !collectExpired(expired)) {
+                    final long delay = nextDelay();
+                    try {
+                        wait(delay);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (!mRunning) {
+                    return;
+                }
+            }
+
+            for (Timeout t : expired) {
+                recordLag(now() - t.mDeadline);
+                try {
+                    t.mTask.run();
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "timer task failed", e);
+                }
+            }
+            expired.clear();
+        }
+    }
+
+    // moves the timeouts that are due to the given list, returns false if there are none
+    private boolean collectExpired(ArrayList<Timeout> expired) {
+        final long now = now();
+        final long from = Math.max(mTick + 1, now - MASK);
+
+        for (long tick = from; tick <= now; tick++) {
+            Timeout t = mBuckets[(int) (tick & MASK)];
+            while (t != null) {
+                final Timeout next = t.mNext;
+                if (t.mDeadline <= now) {
+                    unlink(t);
+                    expired.add(t);
+                }
+                t = next;
+            }
+        }
+        mTick = now;
+
+        return !expired.isEmpty();
+    }
+
+    // time in ms until the earliest deadline, 0 if there is none
+    private long nextDelay() {
+        if (mCount == 0) {
+            return 0;
+        }
+
+        long earliest = Long.MAX_VALUE;
+        for (long tick = mTick + 1; tick <= mTick + BUCKETS; tick++) {
+            for (Timeout t = mBuckets[(int) (tick & MASK)]; t != null; t = t.mNext) {
+                if (t.mDeadline == tick) {
+                    // due in this revolution of the wheel, nothing can be earlier
+                    return tick - mTick;
+                }
+                earliest = Math.min(earliest, t.mDeadline);
+            }
+        }
+        return Math.max(1, earliest - mTick);
+    }
+
+    private long now() {
+        return (System.nanoTime() - mStartNanos) / 1000000;
+    }
+
+    private synchronized void recordLag(long lag) {
+        final int l = (int) Math.min(Integer.MAX_VALUE, lag);
+        mLags[(int) (mFiredCount % LAG_SAMPLES)] = l;
+        mFiredCount++;
+        mMaxLag = Math.max(mMaxLag, l);
+    }
+
+    public synchronized long getFiredCount() {
+        return mFiredCount;
+    }
+
+    public synchronized int getMaxLag() {
+        return mMaxLag;
+    }
+
+    /**
+     * @param percentile between 1 and 100
+     * @return the lag in ms that the given percentage of the last timeouts did not exceed
+     */
+    public synchronized int getLagPercentile(int percentile) {
+        final int samples = (int) Math.min(mFiredCount, LAG_SAMPLES);
+        if (samples == 0) {
+            return 0;
+        }
+
+        final int[] lags = Arrays.copyOf(mLags, samples);
+        Arrays.sort(lags);
+        return lags[Math.max(0, (samples * percentile + 99) / 100 - 1)];
+    }
+
+    /**
+     * A task that can be scheduled on the timer wheel.
+     */
+    public static class Timeout {
+        private final Runnable mTask;
+
+        private long mDeadline;
+        private boolean mScheduled;
+        private Timeout mPrev;
+        private Timeout mNext;
+
+        public Timeout(Runnable task) {
+            mTask = task;
+        }
+    }
+}
@@ -24,7 +24,7 @@ class ItemValidator {
     private final List<String> mNames = new ArrayList<>();
 
     void setServerUrl(String serverUrl, ValidationStateListener l) {
-        OkHttpClient client = OkHttpClientFactory.getInstance().create();
+        OkHttpClient client = OkHttpClientFactory.getInstance().getClient();
 
         try {
             Request request = new Request.Builder()
@@ -5,17 +5,36 @@ import android.content.SharedPreferences;
 import android.content.res.Resources;
 import android.hardware.SensorEvent;
 import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 
 import de.vier_bier.habpanelviewer.Constants;
 import de.vier_bier.habpanelviewer.R;
 import de.vier_bier.habpanelviewer.openhab.ServerConnection;
+import de.vier_bier.habpanelviewer.openhab.average.Aggregator;
+import de.vier_bier.habpanelviewer.openhab.average.AveragePropagator;
 import de.vier_bier.habpanelviewer.status.ApplicationStatus;
 
 public abstract class AbstractAveragingDeviceMonitor extends AbstractDeviceMonitor {
+    private static final int BATCH_CAPACITY = 256;
+
     private boolean mDoAverage;
     private int mInterval;
+    private Aggregator mAggregator = Aggregator.MEAN;
     Float mValue;
 
+    // filters the values reported without averaging
+    private final Deadband mDeadband = new Deadband();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mDeadbandCheck = this::checkDeadband;
+
+    // events delivered together, e.g. from the sensor FIFO, are processed in one call
+    private final float[] mBatchValues = new float[BATCH_CAPACITY];
+    private final long[] mBatchTimes = new long[BATCH_CAPACITY];
+    private int mBatchSize;
+    private final Runnable mFlush = this::flushBatch;
+
     AbstractAveragingDeviceMonitor(Context ctx, SensorManager sensorManager, ServerConnection serverConnection,
                           String sensorName, String prefkey, int sensorType) {
         super(ctx, sensorManager, serverConnection, sensorName, prefkey, sensorType);
@@ -27,7 +46,10 @@ public abstract class AbstractAveragingDeviceMonitor extends AbstractDeviceMonit
             if (mDoAverage) {
                 Resources res = mCtx.getResources();
                 state += "\n" + res.getQuantityString(R.plurals.updateInterval, mInterval, mInterval);
+            } else {
+                state += "\n" + mCtx.getString(R.string.suppressedValues, mDeadband.getSuppressedCount());
             }
+            state += "\n" + getRateInfo();
             if (!mSensorItem.isEmpty()) {
                 state += "\n" + getInfoString(mValue, mSensorItem, mSensorState);
             }
@@ -42,9 +64,16 @@ public abstract class AbstractAveragingDeviceMonitor extends AbstractDeviceMonit
 
     @Override
     public synchronized void updateFromPreferences(SharedPreferences prefs) {
+        // values received with the previous settings are still reported
+        mHandler.removeCallbacks(mFlush);
+        flushBatch();
+
         boolean removeFromAverage = false;
+        // whether the values are filtered differently, so the deadband has to start over
+        boolean changed = false;
         if (mDoAverage != prefs.getBoolean(Constants.PREF_PREFIX + mPreferenceKey + Constants.PREF_SUFFIX_AVERAGE, true)) {
             mDoAverage = prefs.getBoolean(Constants.PREF_PREFIX + mPreferenceKey + Constants.PREF_SUFFIX_AVERAGE, true);
+            changed = true;
 
             if (!mDoAverage) {
                 removeFromAverage = true;
@@ -53,23 +82,106 @@ public abstract class AbstractAveragingDeviceMonitor extends AbstractDeviceMonit
 
         if (mInterval != Integer.parseInt(prefs.getString(Constants.PREF_PREFIX + mPreferenceKey + Constants.PREF_SUFFIX_INTERVAL, "60"))) {
             mInterval = Integer.parseInt(prefs.getString(Constants.PREF_PREFIX + mPreferenceKey + Constants.PREF_SUFFIX_INTERVAL, "60"));
+            changed = true;
         }
+        final Aggregator aggregator = Aggregator.fromString(prefs.getString(Constants.PREF_PREFIX + mPreferenceKey + Constants.PREF_SUFFIX_AGGREGATOR, "MEAN"));
+        if (aggregator != mAggregator) {
+            mAggregator = aggregator;
+            changed = true;
+        }
+        changed |= mDeadband.configure(getFloat(prefs, Constants.PREF_SUFFIX_DEADBAND),
+                getFloat(prefs, Constants.PREF_SUFFIX_DEADBAND_RELATIVE),
+                (long) (getFloat(prefs, Constants.PREF_SUFFIX_MIN_INTERVAL) * 1000),
+                (long) (getFloat(prefs, Constants.PREF_SUFFIX_MAX_INTERVAL) * 1000));
         boolean wasEnabled = mSensorEnabled;
+        final int samplingPeriodUs = getSamplingPeriodUs();
+        final int reportLatencyUs = getReportLatencyUs();
         super.updateFromPreferences(prefs);
+        changed |= mSensorEnabled != wasEnabled || getSamplingPeriodUs() != samplingPeriodUs
+                || getReportLatencyUs() != reportLatencyUs;
 
         // if sensor or averaging turned off remove current average so it is not propagated
         if ((!mSensorEnabled && wasEnabled) || (wasEnabled && removeFromAverage)) {
             mServerConnection.removeFromAverage(mSensorItem);
         }
+
+        if (changed) {
+            mDeadband.reset();
+            mHandler.removeCallbacks(mDeadbandCheck);
+        }
     }
+
+    private float getFloat(SharedPreferences prefs, String suffix) {
+        try {
+            return Float.parseFloat(prefs.getString(Constants.PREF_PREFIX + mPreferenceKey + suffix, "0"));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
     @Override
-    public void onSensorChanged(SensorEvent event) {
-        mValue = event.values[0];
+    public synchronized void onSensorChanged(SensorEvent event) {
+        mBatchValues[mBatchSize] = event.values[0];
+        // event timestamps are based on elapsedRealtimeNanos, only used for averaging
+        mBatchTimes[mBatchSize] = event.timestamp / 1000000;
+        mBatchSize++;
+
+        if (mBatchSize == BATCH_CAPACITY) {
+            mHandler.removeCallbacks(mFlush);
+            flushBatch();
+        } else if (mBatchSize == 1) {
+            // runs after all events that are delivered together
+            mHandler.post(mFlush);
+        }
+    }
+
+    private synchronized void flushBatch() {
+        final int count = mBatchSize;
+        if (count == 0) {
+            return;
+        }
+        mBatchSize = 0;
+        recordBatch(count);
+        mValue = mBatchValues[count - 1];
 
         if (mDoAverage) {
-            mServerConnection.addStateToAverage(mSensorItem, mValue, mInterval);
+            final long offset = AveragePropagator.now() - SystemClock.elapsedRealtime();
+            for (int i = 0; i < count; i++) {
+                mBatchTimes[i] += offset;
+            }
+            mServerConnection.addStatesToAverage(mSensorItem, mBatchValues, mBatchTimes, count, mInterval, mAggregator);
+        } else {
+            // the deadband runs on the flush time, the same clock as its scheduled checks
+            if (mDeadband.offerAll(mBatchValues, count, SystemClock.elapsedRealtime())) {
+                sendState(String.valueOf(mDeadband.getValue()), mDeadband.isHeartbeat());
+            }
+            scheduleDeadbandCheck();
+        }
+    }
+
+    private synchronized void checkDeadband() {
+        if (mSensorEnabled && !mDoAverage && mDeadband.check(SystemClock.elapsedRealtime())) {
+            sendState(String.valueOf(mDeadband.getValue()), mDeadband.isHeartbeat());
+        }
+        scheduleDeadbandCheck();
+    }
+
+    private void sendState(String state, boolean heartbeat) {
+        if (heartbeat) {
+            // the item may already have the state, it is sent again anyway
+            mServerConnection.sendState(mSensorItem, state);
         } else {
-            mServerConnection.updateState(mSensorItem, String.valueOf(mValue));
+            mServerConnection.updateState(mSensorItem, state);
+        }
+    }
+
+    // reports held back values and heartbeats also when the sensor does not deliver new values
+    private void scheduleDeadbandCheck() {
+        mHandler.removeCallbacks(mDeadbandCheck);
+
+        final long delay = mDeadband.getNextCheck(SystemClock.elapsedRealtime());
+        if (delay >= 0) {
+            mHandler.postDelayed(mDeadbandCheck, delay);
         }
     }
 }
@@ -6,6 +6,7 @@ import android.content.SharedPreferences;
 import android.hardware.Sensor;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
+import android.os.SystemClock;
 import android.util.Log;
 
 import org.greenrobot.eventbus.EventBus;
@@ -24,6 +25,11 @@ import de.vier_bier.habpanelviewer.status.ApplicationStatus;
 public abstract class AbstractDeviceMonitor implements IDeviceMonitor, SensorEventListener, IStateUpdateListener {
     private static final String TAG = "HPV-AbstractDevMon";
 
+    // the sampling period of SENSOR_DELAY_NORMAL
+    private static final int SAMPLING_PERIOD_US = 200000;
+    // a sampling period of 0 would request SENSOR_DELAY_FASTEST
+    private static final int MIN_SAMPLING_PERIOD_US = 1000;
+
     final Context mCtx;
     private final SensorManager mSensorManager;
     final ServerConnection mServerConnection;
@@ -36,6 +42,13 @@ public abstract class AbstractDeviceMonitor implements IDeviceMonitor, SensorEve
     String mSensorItem;
     String mSensorState;
 
+    // sensors with a hardware FIFO deliver their events in batches when a report latency is set
+    private int mSamplingPeriodUs = SAMPLING_PERIOD_US;
+    private int mReportLatencyUs;
+    private long mRegisteredTime;
+    private long mEventCount;
+    private long mBatchCount;
+
     AbstractDeviceMonitor(Context ctx, SensorManager sensorManager, ServerConnection serverConnection,
                           String sensorName, String prefkey, int sensorType) {
         mCtx = ctx;
@@ -70,14 +83,24 @@ public abstract class AbstractDeviceMonitor implements IDeviceMonitor, SensorEve
 
     public synchronized void updateFromPreferences(SharedPreferences prefs) {
         if (mSensor != null) {
+            final int samplingPeriodUs = Math.max(MIN_SAMPLING_PERIOD_US,
+                    getMicros(prefs, Constants.PREF_SUFFIX_SAMPLING_PERIOD, "200", 1000, SAMPLING_PERIOD_US));
+            final int reportLatencyUs = getMicros(prefs, Constants.PREF_SUFFIX_REPORT_LATENCY, "0", 1000000, 0);
+            final boolean rateChanged = samplingPeriodUs != mSamplingPeriodUs || reportLatencyUs != mReportLatencyUs;
+            mSamplingPeriodUs = samplingPeriodUs;
+            mReportLatencyUs = reportLatencyUs;
+
             if (mSensorEnabled != prefs.getBoolean(Constants.PREF_PREFIX + mPreferenceKey + Constants.PREF_SUFFIX_ENABLED, false)) {
                 mSensorEnabled = !mSensorEnabled;
 
                 if (mSensorEnabled) {
-                    mSensorManager.registerListener(this, mSensor, SensorManager.SENSOR_DELAY_NORMAL);
+                    registerListener();
                 } else {
                     mSensorManager.unregisterListener(this);
                 }
+            } else if (mSensorEnabled && rateChanged) {
+                mSensorManager.unregisterListener(this);
+                registerListener();
             }
 
             mSensorItem = prefs.getString(Constants.PREF_PREFIX + mPreferenceKey + Constants.PREF_SUFFIX_ITEM, "");
@@ -85,6 +108,50 @@ public abstract class AbstractDeviceMonitor implements IDeviceMonitor, SensorEve
         }
     }
 
+    synchronized int getSamplingPeriodUs() {
+        return mSamplingPeriodUs;
+    }
+
+    synchronized int getReportLatencyUs() {
+        return mReportLatencyUs;
+    }
+
+    private void registerListener() {
+        mSensorManager.registerListener(this, mSensor, mSamplingPeriodUs, mReportLatencyUs);
+
+        mRegisteredTime = SystemClock.elapsedRealtime();
+        mEventCount = 0;
+        mBatchCount = 0;
+    }
+
+    private int getMicros(SharedPreferences prefs, String suffix, String defaultValue, int factor, int fallback) {
+        try {
+            return (int) Math.min(Integer.MAX_VALUE,
+                    Math.max(0, Long.parseLong(prefs.getString(Constants.PREF_PREFIX + mPreferenceKey + suffix, defaultValue)) * factor));
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    /**
+     * Records a number of sensor events that have been delivered together.
+     */
+    synchronized void recordBatch(int events) {
+        mEventCount += events;
+        mBatchCount++;
+    }
+
+    /**
+     * @return effective event rate and batch size since the listener has been registered
+     */
+    synchronized String getRateInfo() {
+        final long millis = Math.max(1, SystemClock.elapsedRealtime() - mRegisteredTime);
+        return mCtx.getString(R.string.sensorRate,
+                mEventCount * 1000f / millis,
+                mBatchCount == 0 ? 0f : (float) mEventCount / mBatchCount,
+                mSensor.getFifoMaxEventCount());
+    }
+
     @Override
     public void itemUpdated(String name, String value) {
         mSensorState = value;
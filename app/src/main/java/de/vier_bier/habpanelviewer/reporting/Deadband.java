@@ -0,0 +1,143 @@
+package de.vier_bier.habpanelviewer.reporting;
+
+/**
+ * Decides which sensor values are reported.
+ *
+ * A value is reported when it differs from the last reported value by at least the absolute or
+ * relative deadband, but not earlier than the minimum interval after the last report. Changes
+ * held back by the minimum interval are reported when it has elapsed. When a maximum interval is
+ * set, the current value is reported again after that time even if it did not change.
+ */
+class Deadband {
+    private float mAbsolute;
+    private float mRelative;
+    private long mMinInterval;
+    private long mMaxInterval;
+
+    private boolean mReported;
+    private float mLastReported;
+    private long mLastTime;
+
+    private float mValue;
+    private boolean mPending;
+    // whether the last report was only due to the maximum interval
+    private boolean mHeartbeat;
+
+    private long mSuppressedCount;
+
+    /**
+     * @param absolute minimum absolute change, 0 to disable
+     * @param relativePercent minimum change relative to the last reported value, 0 to disable
+     * @param minIntervalMillis minimum time between two reports
+     * @param maxIntervalMillis time after which the value is reported again, 0 to disable
+     * @return whether the configuration changed
+     */
+    synchronized boolean configure(float absolute, float relativePercent, long minIntervalMillis, long maxIntervalMillis) {
+        final float newAbsolute = Math.max(0, absolute);
+        final float newRelative = Math.max(0, relativePercent) / 100;
+        final long newMinInterval = Math.max(0, minIntervalMillis);
+        final long newMaxInterval = Math.max(0, maxIntervalMillis);
+        final boolean changed = newAbsolute != mAbsolute || newRelative != mRelative
+                || newMinInterval != mMinInterval || newMaxInterval != mMaxInterval;
+
+        mAbsolute = newAbsolute;
+        mRelative = newRelative;
+        mMinInterval = newMinInterval;
+        mMaxInterval = newMaxInterval;
+        return changed;
+    }
+
+    /**
+     * @return whether the value should be reported now
+     */
+    synchronized boolean offer(float value, long now) {
+        mValue = value;
+        mPending = !mReported || isSignificant(value);
+
+        if (check(now)) {
+            return true;
+        }
+
+        mSuppressedCount++;
+        return false;
+    }
+
+    /**
+     * Offers the values of a batch delivered together. Only the last one is the current value,
+     * the earlier ones are counted as suppressed.
+     *
+     * @return whether the last value should be reported now
+     */
+    synchronized boolean offerAll(float[] values, int count, long now) {
+        mSuppressedCount += count - 1;
+        return offer(values[count - 1], now);
+    }
+
+    /**
+     * Checks whether a held back value or a heartbeat is due.
+     *
+     * @return whether the current value should be reported now
+     */
+    synchronized boolean check(long now) {
+        final long elapsed = now - mLastTime;
+        final boolean changed = mPending && (!mReported || elapsed >= mMinInterval);
+        if (changed || (mReported && mMaxInterval > 0 && elapsed >= mMaxInterval)) {
+            mHeartbeat = !changed;
+            mReported = true;
+            mLastReported = mValue;
+            mLastTime = now;
+            mPending = false;
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * @return time in ms until {@link #check(long)} should be called, -1 if not needed
+     */
+    synchronized long getNextCheck(long now) {
+        if (!mReported) {
+            return -1;
+        }
+
+        long next = Long.MAX_VALUE;
+        if (mPending) {
+            next = mLastTime + mMinInterval;
+        }
+        if (mMaxInterval > 0) {
+            next = Math.min(next, mLastTime + mMaxInterval);
+        }
+        return next == Long.MAX_VALUE ? -1 : Math.max(0, next - now);
+    }
+
+    /**
+     * @return whether the last reported value is only a repetition due to the maximum interval
+     */
+    synchronized boolean isHeartbeat() {
+        return mHeartbeat;
+    }
+
+    synchronized float getValue() {
+        return mValue;
+    }
+
+    synchronized long getSuppressedCount() {
+        return mSuppressedCount;
+    }
+
+    synchronized void reset() {
+        mReported = false;
+        mPending = false;
+    }
+
+    private boolean isSignificant(float value) {
+        final float change = Math.abs(value - mLastReported);
+        if (mAbsolute == 0 && mRelative == 0) {
+            return change > 0;
+        }
+
+        return (mAbsolute > 0 && change >= mAbsolute)
+                || (mRelative > 0 && change > 0 && change >= mRelative * Math.abs(mLastReported));
+    }
+}
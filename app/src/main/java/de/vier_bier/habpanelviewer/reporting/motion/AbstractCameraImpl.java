@@ -22,6 +22,11 @@ abstract class AbstractCameraImpl implements ICamera {
 
     final List<ILumaListener> mListeners = new ArrayList<>();
 
+    private volatile int mDetectionWidth = 640;
+    private volatile int mDetectionHeight = 480;
+    // only accessed from the preview callback thread
+    private LumaReader mLumaReader;
+
     AbstractCameraImpl(Activity activity, TextureView previewView) {
         mActivity = activity;
         mPreviewView = previewView;
@@ -38,6 +43,27 @@ abstract class AbstractCameraImpl implements ICamera {
         mListeners.remove(l);
     }
 
+    @Override
+    public void setDetectionSize(int width, int height) {
+        mDetectionWidth = width;
+        mDetectionHeight = height;
+    }
+
+    /**
+     * Get a reader that downscales preview images of the given size to the detection size.
+     *
+     * @param blackLevel whether the video black level is subtracted, see {@link LumaReader}
+     */
+    LumaReader getLumaReader(int width, int height, boolean blackLevel) {
+        int targetWidth = mDetectionWidth;
+        int targetHeight = mDetectionHeight;
+
+        if (mLumaReader == null || !mLumaReader.isFor(width, height, targetWidth, targetHeight, blackLevel)) {
+            mLumaReader = new LumaReader(width, height, targetWidth, targetHeight, blackLevel);
+        }
+        return mLumaReader;
+    }
+
     Point chooseOptimalSize(Point[] choices) {
 
         // Collect the supported resolutions that are at least as big as the preview Surface
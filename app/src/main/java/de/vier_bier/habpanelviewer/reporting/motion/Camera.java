@@ -192,6 +192,9 @@ public class Camera {
                 }
             }
 
+            String[] resolution = prefs.getString(Constants.PREF_MOTION_DETECTION_RESOLUTION, "640x480").split("x");
+            mImplementation.setDetectionSize(Integer.parseInt(resolution[0]), Integer.parseInt(resolution[1]));
+
             mShowPreview = prefs.getBoolean(Constants.PREF_MOTION_DETECTION_PREVIEW, false)
                     && canBeUsed();
 
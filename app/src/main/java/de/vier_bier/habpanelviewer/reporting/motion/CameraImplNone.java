@@ -58,6 +58,10 @@ public class CameraImplNone implements ICamera {
     public void setDeviceRotation(int deviceOrientation) {
     }
 
+    @Override
+    public void setDetectionSize(int width, int height) {
+    }
+
     public String getMessage() {
         return mErrMsg;
     }
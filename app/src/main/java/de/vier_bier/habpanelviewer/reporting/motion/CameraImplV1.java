@@ -9,6 +9,7 @@ import android.util.Log;
 import android.view.TextureView;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -135,10 +136,17 @@ class CameraImplV1 extends AbstractCameraImpl {
                         previewListener.started();
                     }
 
+                    LumaData ld = null;
                     for (ILumaListener l : mListeners) {
                         if (l.needsPreview()) {
                             Log.v(TAG, "preview image available and needed: size " + previewSize.x + "x" + previewSize.y);
-                            l.preview(LumaData.extractLuma(bytes, previewSize.x, previewSize.y));
+                            if (ld == null) {
+                                // NV21 starts with the full resolution luma plane, the black
+                                // level is subtracted as before the plane was read in place
+                                ld = getLumaReader(previewSize.x, previewSize.y, true)
+                                        .read(ByteBuffer.wrap(bytes), previewSize.x, 1);
+                            }
+                            l.preview(ld);
                         }
                     }
                 });
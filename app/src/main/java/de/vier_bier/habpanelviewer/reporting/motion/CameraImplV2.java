@@ -240,8 +240,9 @@ public class CameraImplV2 extends AbstractCameraImpl {
                         for (ILumaListener l : mListeners) {
                             if (l.needsPreview()) {
                                 if (ld == null && i != null) {
-                                    ByteBuffer buffer = i.getPlanes()[0].getBuffer();
-                                    ld = new LumaData(buffer, i.getWidth(), i.getHeight());
+                                    Image.Plane plane = i.getPlanes()[0];
+                                    ld = getLumaReader(i.getWidth(), i.getHeight(), false)
+                                            .read(plane.getBuffer(), plane.getRowStride(), plane.getPixelStride());
                                 }
                                 l.preview(ld);
                             }
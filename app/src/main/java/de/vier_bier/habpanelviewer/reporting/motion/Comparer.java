@@ -1,92 +1,275 @@
 package de.vier_bier.habpanelviewer.reporting.motion;
 
-import android.graphics.Point;
-
-import java.util.ArrayList;
-
 /**
  * Compares to images for equality. Does this by dividing the images into smaller rectangles,
  * computing the brightness average and comparing that.
+ *
+ * Images can either be compared to each other or to a background model, that holds an
+ * exponentially weighted moving average (and variance) of the brightness of every rectangle.
+ * When comparing to the model, a global brightness shift (e.g. from switching the room lights)
+ * can be estimated as the median deviation of all rectangles and subtracted before thresholding.
+ *
+ * Comparing does not allocate, the differing rectangles are written to a MotionBoxes instance
+ * that is reused for every comparison.
  */
 class Comparer {
+    // with noise adaption, deviations below this multiple of the standard deviation are ignored
+    private static final float NOISE_FACTOR = 3f;
+
     private final int boxes;
 
-    private final Point[] boxStart;
-    private final Point[] boxEnd;
+    private final int[] boxStartX;
+    private final int[] boxEndX;
+    private final int[] boxStartY;
+    private final int[] boxEndY;
     private final int leniency;
 
+    private final float learningRate;
+    private final boolean noiseAdaption;
+    private final boolean illuminationCompensation;
+    private final float[] backgroundMean;
+    private final float[] backgroundVariance;
+    private boolean backgroundInitialized;
+    // boxes that were excluded while the model was built, their model is taken from the next image
+    private final boolean[] reseed;
+
+    // deviation of every rectangle from the model and a copy that is partitioned to find the median
+    private final float[] deviation;
+    private final float[] partitionedDeviation;
+    private boolean illuminationChange;
+
+    private final MotionBoxes differing;
+
+    // excluded boxes, null if all boxes are evaluated
+    private MotionMask mask;
+
     Comparer(int width, int height, int boxes, int leniency) {
+        this(width, height, boxes, leniency, 1f, false, false);
+    }
+
+    /**
+     * @param learningRate             weight of a new image in the background model, 1 means the
+     *                                 model always equals the last image
+     * @param noiseAdaption            whether to raise the threshold for rectangles whose
+     *                                 brightness varies
+     * @param illuminationCompensation whether to subtract the global brightness shift
+     */
+    Comparer(int width, int height, int boxes, int leniency, float learningRate, boolean noiseAdaption,
+             boolean illuminationCompensation) {
         this.boxes = boxes;
         this.leniency = leniency;
+        this.learningRate = learningRate;
+        this.noiseAdaption = noiseAdaption;
+        this.illuminationCompensation = illuminationCompensation;
+
+        backgroundMean = new float[boxes * boxes];
+        backgroundVariance = new float[boxes * boxes];
+        reseed = new boolean[boxes * boxes];
+        deviation = new float[boxes * boxes];
+        partitionedDeviation = new float[boxes * boxes];
+        differing = new MotionBoxes(boxes);
 
         // how many points per box
         float xPixelsPerBox = width / (float) boxes;
         float yPixelsPerBox = height / (float) boxes;
 
-        boxStart = new Point[boxes];
-        boxEnd = new Point[boxes];
+        boxStartX = new int[boxes];
+        boxEndX = new int[boxes];
+        boxStartY = new int[boxes];
+        boxEndY = new int[boxes];
 
         for (int i = 0; i < boxes; i++) {
-            int startX = (int) (i * xPixelsPerBox);
-            int endX = i == (boxes - 1) ? width - 1 : (int) ((i + 1) * xPixelsPerBox) - 1;
+            boxStartX[i] = (int) (i * xPixelsPerBox);
+            boxEndX[i] = i == (boxes - 1) ? width - 1 : (int) ((i + 1) * xPixelsPerBox) - 1;
+
+            boxStartY[i] = (int) (i * yPixelsPerBox);
+            boxEndY[i] = i == (boxes - 1) ? height - 1 : (int) ((i + 1) * yPixelsPerBox) - 1;
+        }
+    }
 
-            int startY = (int) (i * yPixelsPerBox);
-            int endY = i == (boxes - 1) ? height - 1 : (int) ((i + 1) * yPixelsPerBox) - 1;
+    /**
+     * Sets the region of interest. Excluded boxes are neither averaged nor compared. The
+     * background model is kept, boxes that are included again start over with the next image.
+     */
+    void setMask(MotionMask mask) {
+        final MotionMask newMask = mask == null || mask.isEmpty() ? null : mask.rescale(boxes);
 
-            boxStart[i] = new Point(startX, startY);
-            boxEnd[i] = new Point(endX, endY);
+        if (backgroundInitialized && this.mask != null) {
+            for (int y = 0, i = 0; y < boxes; y++) {
+                for (int x = 0; x < boxes; x++, i++) {
+                    if (this.mask.isExcluded(x, y) && (newMask == null || !newMask.isExcluded(x, y))) {
+                        reseed[i] = true;
+                    }
+                }
+            }
         }
+        this.mask = newMask;
     }
 
     /**
      * Compare two images for difference
+     *
+     * @return the differing rectangles, only valid until the next comparison.
      */
-    ArrayList<Point> isDifferent(LumaData s1, LumaData s2) {
-        ArrayList<Point> differing = new ArrayList<>();
+    MotionBoxes isDifferent(LumaData s1, LumaData s2) {
+        differing.clear();
 
-        s1.setBoxCount(boxes);
-        s2.setBoxCount(boxes);
-
-        int b1;
-        int b2;
-        int diff;
         for (int y = 0; y < boxes; y++) {
             for (int x = 0; x < boxes; x++) {
-                b1 = calcAverage(s1, x, y);
-                b2 = calcAverage(s2, x, y);
-                diff = Math.abs(b1 - b2);
+                if (mask != null && mask.isExcluded(x, y)) {
+                    continue;
+                }
 
-                if (diff > leniency * 2.55f) {
-                    differing.add(new Point(x, y));
+                if (isDifferent(s1, s2, x, y)) {
+                    differing.set(x, y);
                 }
             }
         }
         return differing;
     }
 
-    private int calcAverage(LumaData luma, int xBox, int yBox) {
-        if (luma.getAverage(xBox, yBox) != -1) {
-            return luma.getAverage(xBox, yBox);
+    /**
+     * Compare an image to the background model and fold it into the model afterwards.
+     * The image is not referenced after this method returns.
+     *
+     * @return the differing rectangles or null if this was the first image. The result is only
+     * valid until the next comparison.
+     */
+    MotionBoxes update(LumaData s) {
+        if (!backgroundInitialized) {
+            for (int y = 0, i = 0; y < boxes; y++) {
+                for (int x = 0; x < boxes; x++, i++) {
+                    if (mask != null && mask.isExcluded(x, y)) {
+                        continue;
+                    }
+
+                    backgroundMean[i] = calcAverage(s, x, y);
+                    backgroundVariance[i] = 0;
+                }
+            }
+            backgroundInitialized = true;
+            return null;
+        }
+
+        int included = 0;
+        for (int y = 0, i = 0; y < boxes; y++) {
+            for (int x = 0; x < boxes; x++, i++) {
+                if (mask != null && mask.isExcluded(x, y)) {
+                    continue;
+                }
+                if (reseed[i]) {
+                    backgroundMean[i] = calcAverage(s, x, y);
+                    backgroundVariance[i] = 0;
+                    continue;
+                }
+
+                deviation[i] = calcAverage(s, x, y) - backgroundMean[i];
+                partitionedDeviation[included++] = deviation[i];
+            }
         }
 
-        byte[] data = luma.getData();
-        if (data == null) throw new NullPointerException();
+        float shift = 0;
+        if (illuminationCompensation && included > 0) {
+            shift = select(partitionedDeviation, included, included / 2);
+        }
 
-        int yPix = boxEnd[yBox].y - boxStart[yBox].y + 1;
-        int xPix = boxEnd[xBox].x - boxStart[xBox].x + 1;
+        differing.clear();
+        float threshold = leniency * 2.55f;
+        boolean differingWithoutShift = false;
 
-        int i = 0;
-        int idx = boxStart[yBox].y * luma.getWidth() + boxStart[xBox].x;
-        for (int y = boxStart[yBox].y; y <= boxEnd[yBox].y; y++) {
-            for (int x = 0; x < xPix; x++) {
-                i += data[idx++];
+        for (int y = 0, i = 0; y < boxes; y++) {
+            for (int x = 0; x < boxes; x++, i++) {
+                if (mask != null && mask.isExcluded(x, y)) {
+                    continue;
+                }
+                if (reseed[i]) {
+                    reseed[i] = false;
+                    continue;
+                }
+
+                float diff = deviation[i] - shift;
+
+                float boxThreshold = threshold;
+                if (noiseAdaption) {
+                    boxThreshold = Math.max(threshold, NOISE_FACTOR * (float) Math.sqrt(backgroundVariance[i]));
+                }
+                if (Math.abs(diff) > boxThreshold) {
+                    differing.set(x, y);
+                } else if (Math.abs(deviation[i]) > boxThreshold) {
+                    differingWithoutShift = true;
+                }
+
+                // the global shift is taken over immediately, only the remainder is averaged
+                backgroundMean[i] += shift + learningRate * diff;
+                backgroundVariance[i] = (1 - learningRate) * (backgroundVariance[i] + learningRate * diff * diff);
+            }
+        }
+
+        illuminationChange = differing.isEmpty() && differingWithoutShift;
+        return differing;
+    }
+
+    /**
+     * @return whether motion would have been detected by the last update without subtracting
+     * the global brightness shift.
+     */
+    boolean isIlluminationChange() {
+        return illuminationChange;
+    }
+
+    /**
+     * Finds the k-th smallest of the first n values in place (quickselect). Unlike sorting, this
+     * is guaranteed not to allocate.
+     */
+    private static float select(float[] values, int n, int k) {
+        int left = 0;
+        int right = n - 1;
+
+        while (left < right) {
+            float pivot = values[(left + right) >>> 1];
+            int i = left;
+            int j = right;
+
+            while (i <= j) {
+                while (values[i] < pivot) {
+                    i++;
+                }
+                while (values[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    float tmp = values[i];
+                    values[i++] = values[j];
+                    values[j--] = tmp;
+                }
+            }
+
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                break;
             }
-            idx += luma.getWidth() - xPix;
         }
+        return values[k];
+    }
+
+    boolean isDifferent(LumaData s1, LumaData s2, int xBox, int yBox) {
+        int b1 = calcAverage(s1, xBox, yBox);
+        int b2 = calcAverage(s2, xBox, yBox);
 
-        byte result = (byte) (i / (xPix * yPix));
-        luma.setAverage(xBox, yBox, result);
+        return Math.abs(b1 - b2) > leniency * 2.55f;
+    }
+
+    /**
+     * @return the average luma of the rectangle, between 0 and 255
+     */
+    int calcAverage(LumaData luma, int xBox, int yBox) {
+        int xPix = boxEndX[xBox] - boxStartX[xBox] + 1;
+        int yPix = boxEndY[yBox] - boxStartY[yBox] + 1;
 
-        return result;
+        int sum = luma.getSum(boxStartX[xBox], boxStartY[yBox], boxEndX[xBox], boxEndY[yBox]);
+        return sum / (xPix * yPix);
     }
 }
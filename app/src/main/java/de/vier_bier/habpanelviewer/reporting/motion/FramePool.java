@@ -0,0 +1,108 @@
+package de.vier_bier.habpanelviewer.reporting.motion;
+
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock-free pool for frame sized arrays. Buffers are handed out by acquire and returned
+ * by release. At most capacity buffers are retained, additional released buffers are left to
+ * the garbage collector. Buffers that do not match the requested size are discarded.
+ */
+class FramePool<T> {
+    private static final String TAG = "HPV-FramePool";
+
+    // number of buffers that may be in use at the same time before a leak is reported
+    private static final int LEAK_THRESHOLD = 16;
+
+    interface Allocator<T> {
+        T allocate(int size);
+
+        int sizeOf(T buffer);
+    }
+
+    private final String mName;
+    private final Allocator<T> mAllocator;
+    private final AtomicReferenceArray<T> mSlots;
+
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    private final AtomicLong mDiscarded = new AtomicLong();
+    private final AtomicInteger mInUse = new AtomicInteger();
+    private final AtomicBoolean mLeakReported = new AtomicBoolean();
+    private volatile boolean mLeakDetection;
+
+    FramePool(String name, int capacity, Allocator<T> allocator) {
+        mName = name;
+        mAllocator = allocator;
+        mSlots = new AtomicReferenceArray<>(capacity);
+    }
+
+    T acquire(int size) {
+        for (int i = 0; i < mSlots.length(); i++) {
+            T buffer = mSlots.get(i);
+
+            if (buffer != null && mSlots.compareAndSet(i, buffer, null)) {
+                if (mAllocator.sizeOf(buffer) == size) {
+                    mHits.incrementAndGet();
+                    inUse(1);
+                    return buffer;
+                }
+
+                // frame size has changed, buffer can not be reused
+                mDiscarded.incrementAndGet();
+            }
+        }
+
+        mMisses.incrementAndGet();
+        inUse(1);
+        return mAllocator.allocate(size);
+    }
+
+    void release(T buffer) {
+        inUse(-1);
+
+        for (int i = 0; i < mSlots.length(); i++) {
+            if (mSlots.get(i) == null && mSlots.compareAndSet(i, null, buffer)) {
+                return;
+            }
+        }
+
+        mDiscarded.incrementAndGet();
+    }
+
+    /**
+     * Enables logging of buffers that are acquired but never released.
+     */
+    void setLeakDetection(boolean enabled) {
+        mLeakDetection = enabled;
+    }
+
+    long getHits() {
+        return mHits.get();
+    }
+
+    long getMisses() {
+        return mMisses.get();
+    }
+
+    long getDiscarded() {
+        return mDiscarded.get();
+    }
+
+    int getInUse() {
+        return mInUse.get();
+    }
+
+    private void inUse(int delta) {
+        int inUse = mInUse.addAndGet(delta);
+
+        if (mLeakDetection && inUse > LEAK_THRESHOLD && mLeakReported.compareAndSet(false, true)) {
+            Log.w(TAG, mName + ": " + inUse + " buffers have been acquired but not released",
+                    new IllegalStateException("possible buffer leak"));
+        }
+    }
+}
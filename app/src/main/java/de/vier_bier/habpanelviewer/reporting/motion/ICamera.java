@@ -29,6 +29,8 @@ public interface ICamera {
 
     void setDeviceRotation(int deviceOrientation);
 
+    void setDetectionSize(int width, int height);
+
     interface ILumaListener {
         void preview(LumaData previewBytes);
 
@@ -10,5 +10,12 @@ public interface IMotionDetector {
 
     void updateFromPreferences(SharedPreferences prefs);
 
+    /**
+     * Sets the excluded boxes without restarting detection.
+     *
+     * @param mask the mask as stored in the preferences
+     */
+    void setMask(String mask);
+
     Camera getCamera();
 }
@@ -1,14 +1,13 @@
 package de.vier_bier.habpanelviewer.reporting.motion;
 
-import android.graphics.Point;
-
-import java.util.ArrayList;
-
 /**
  * Interface for being notified about motion events.
  */
 public interface IMotionListener {
-    void motionDetected(ArrayList<Point> differing);
+    /**
+     * @param differing boxes with motion, only valid during this call as the instance is reused
+     */
+    void motionDetected(MotionBoxes differing);
 
     void noMotion();
 
@@ -16,7 +15,7 @@ public interface IMotionListener {
 
     class MotionAdapter implements IMotionListener {
         @Override
-        public void motionDetected(ArrayList<Point> differing) {
+        public void motionDetected(MotionBoxes differing) {
         }
 
         @Override
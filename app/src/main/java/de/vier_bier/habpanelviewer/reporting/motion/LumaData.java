@@ -1,52 +1,34 @@
 package de.vier_bier.habpanelviewer.reporting.motion;
 
-import java.nio.ByteBuffer;
-import java.util.ArrayList;
-import java.util.Arrays;
-
 /**
  * Brightness data for an image.
  */
 class LumaData {
-    // as LumaData objects are created and disposed in rapid succession, reuse the underlying byte[]
-    private static final ArrayList<byte[][]> AVG_POOL = new ArrayList<>();
-    private static int mAvgPoolDim = -1;
-    private static final ArrayList<byte[]> DATA_POOL = new ArrayList<>();
-    private static int mDataPoolDim = -1;
+    // as LumaData objects are created and disposed in rapid succession, reuse the underlying arrays
+    private static final FramePool<int[]> SUM_POOL = new FramePool<>("sums", 4, new FramePool.Allocator<int[]>() {
+        @Override
+        public int[] allocate(int size) {
+            return new int[size];
+        }
 
-    private byte[] data;
-    private byte[][] average = null;
+        @Override
+        public int sizeOf(int[] buffer) {
+            return buffer.length;
+        }
+    });
+
+    // summed-area table of size (width + 1) * (height + 1)
+    private int[] sums;
     private final int width;
     private final int height;
-    private int mBoxes = -1;
-
-    private LumaData(byte[] data, int width, int height) {
-        this.data = data;
-        this.width = width;
-        this.height = height;
-    }
-
-    LumaData(ByteBuffer buffer, int width, int height) {
-        data = getFromDataPool(buffer.capacity());
-        buffer.get(data);
-        this.width = width;
-        this.height = height;
-    }
-
-    public void setBoxCount(int boxCount) {
-        if (boxCount != mBoxes) {
-            mBoxes = boxCount;
-            average = getFromAvgPool(boxCount);
-        }
-    }
 
     /**
-     * Get the LumaData.
-     *
-     * @return integer array of the LumaData.
+     * Creates LumaData from an already computed summed-area table, no pixel data is retained.
      */
-    public byte[] getData() {
-        return data;
+    LumaData(int[] sums, int width, int height) {
+        this.sums = sums;
+        this.width = width;
+        this.height = height;
     }
 
     /**
@@ -67,86 +49,43 @@ class LumaData {
         return height;
     }
 
-    int getAverage(int xBox, int yBox) {
-        return average[xBox][yBox];
-    }
+    /**
+     * Get the sum of all luma values inside the given rectangle.
+     *
+     * @param startX first column of the rectangle (inclusive)
+     * @param startY first row of the rectangle (inclusive)
+     * @param endX last column of the rectangle (inclusive)
+     * @param endY last row of the rectangle (inclusive)
+     * @return sum of the unsigned luma values.
+     */
+    int getSum(int startX, int startY, int endX, int endY) {
+        int[] s = sums;
+        int stride = width + 1;
 
-    void setAverage(int xBox, int yBox, byte result) {
-        average[xBox][yBox] = result;
+        return s[(endY + 1) * stride + endX + 1] - s[startY * stride + endX + 1]
+                - s[(endY + 1) * stride + startX] + s[startY * stride + startX];
     }
 
     boolean isDarker(int minLuma) {
-        int lumaSum = 0;
-        for (int i : data) {
-            lumaSum += (i - Byte.MIN_VALUE - 16);
-        }
-        return lumaSum < minLuma;
+        return getSum(0, 0, width - 1, height - 1) < minLuma;
     }
 
-    private static byte[][] getFromAvgPool(int boxes) {
-        synchronized (AVG_POOL) {
-            if (boxes != mAvgPoolDim) {
-                AVG_POOL.clear();
-                mAvgPoolDim = boxes;
-            }
-
-            byte[][] average;
-            if (AVG_POOL.isEmpty()) {
-                average = new byte[boxes][boxes];
-            } else {
-                average = AVG_POOL.remove(0);
-            }
-
-            for (int x = 0; x < boxes; x++) {
-                Arrays.fill(average[x], (byte) -1);
-            }
-
-            return average;
-        }
+    static int[] getFromSumPool(int size) {
+        return SUM_POOL.acquire(size);
     }
 
-    private static byte[] getFromDataPool(int size) {
-        synchronized (DATA_POOL) {
-            if (size != mDataPoolDim) {
-                DATA_POOL.clear();
-                mDataPoolDim = size;
-            }
-
-            if (DATA_POOL.isEmpty()) {
-                return new byte[size];
-            } else {
-                return DATA_POOL.remove(0);
-            }
-        }
+    static FramePool<int[]> getSumPool() {
+        return SUM_POOL;
     }
 
-    public static LumaData extractLuma(byte[] data, int width, int height) {
-        byte[] hsl = getFromDataPool(width * height);
-
-        for (int j = 0, yp = 0; j < height; j++) {
-            for (int i = 0; i < width; i++, yp++) {
-                int y = (0xff & (data[yp])) - 16;
-                if (y < 0) y = 0;
-                hsl[yp] = (byte) y;
-            }
-        }
-
-        return new LumaData(hsl, width, height);
+    static void setLeakDetection(boolean enabled) {
+        SUM_POOL.setLeakDetection(enabled);
     }
 
     public void release() {
-        synchronized (AVG_POOL) {
-            if (mBoxes == mAvgPoolDim) {
-                AVG_POOL.add(average);
-                average = null;
-            }
-        }
-
-        synchronized (DATA_POOL) {
-            if (data.length == mDataPoolDim) {
-                DATA_POOL.add(data);
-                data = null;
-            }
+        if (sums != null) {
+            SUM_POOL.release(sums);
+            sums = null;
         }
     }
 
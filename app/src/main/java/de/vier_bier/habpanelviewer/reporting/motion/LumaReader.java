@@ -0,0 +1,147 @@
+package de.vier_bier.habpanelviewer.reporting.motion;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Reads the luma plane of a camera image directly into the summed-area table of a LumaData,
+ * honoring row and pixel stride of the plane. If the target size is smaller than the image,
+ * the image is downscaled on the fly by averaging all pixels that fall into a target pixel.
+ * Optionally the luma values are shifted by the video black level of 16, as done for images of
+ * the old camera API.
+ *
+ * Instances are not thread safe and must only be used from the camera callback thread.
+ */
+class LumaReader {
+    private final int mWidth;
+    private final int mHeight;
+    private final int mTargetWidth;
+    private final int mTargetHeight;
+    private final boolean mBlackLevel;
+
+    // value used for every luma byte
+    private final int[] mLuma = new int[256];
+
+    // target column for every image column
+    private final int[] mTargetX;
+    // target row for every image row
+    private final int[] mTargetY;
+    // number of image pixels per target column and row
+    private final int[] mColumnPixels;
+    private final int[] mRowPixels;
+    // luma sums of the target row currently being accumulated
+    private final int[] mColumnSums;
+
+    LumaReader(int width, int height, int targetWidth, int targetHeight) {
+        this(width, height, targetWidth, targetHeight, false);
+    }
+
+    /**
+     * @param blackLevel whether 16 is subtracted from every luma value, clamped at 0
+     */
+    LumaReader(int width, int height, int targetWidth, int targetHeight, boolean blackLevel) {
+        mWidth = width;
+        mHeight = height;
+        mTargetWidth = Math.max(1, Math.min(width, targetWidth));
+        mTargetHeight = Math.max(1, Math.min(height, targetHeight));
+
+        mTargetX = new int[width];
+        mColumnPixels = new int[mTargetWidth];
+        for (int x = 0; x < width; x++) {
+            mTargetX[x] = (int) ((long) x * mTargetWidth / width);
+            mColumnPixels[mTargetX[x]]++;
+        }
+
+        mTargetY = new int[height];
+        mRowPixels = new int[mTargetHeight];
+        for (int y = 0; y < height; y++) {
+            mTargetY[y] = (int) ((long) y * mTargetHeight / height);
+            mRowPixels[mTargetY[y]]++;
+        }
+
+        mColumnSums = new int[mTargetWidth];
+
+        mBlackLevel = blackLevel;
+        for (int b = 0; b < 256; b++) {
+            mLuma[b] = blackLevel ? Math.max(0, b - 16) : b;
+        }
+    }
+
+    /**
+     * Checks whether this reader has been created for the given image and target size.
+     */
+    boolean isFor(int width, int height, int targetWidth, int targetHeight, boolean blackLevel) {
+        return mWidth == width && mHeight == height && mBlackLevel == blackLevel
+                && mTargetWidth == Math.max(1, Math.min(width, targetWidth))
+                && mTargetHeight == Math.max(1, Math.min(height, targetHeight));
+    }
+
+    int getWidth() {
+        return mWidth;
+    }
+
+    int getHeight() {
+        return mHeight;
+    }
+
+    int getTargetWidth() {
+        return mTargetWidth;
+    }
+
+    int getTargetHeight() {
+        return mTargetHeight;
+    }
+
+    /**
+     * Reads the given plane. The buffer is accessed with absolute reads only, so its position is
+     * not modified and the plane can be read while the image is still open.
+     *
+     * @param buffer      the luma plane
+     * @param rowStride   distance between the starts of two rows in bytes
+     * @param pixelStride distance between two pixels of the same row in bytes
+     * @return LumaData with the target width and height
+     */
+    LumaData read(ByteBuffer buffer, int rowStride, int pixelStride) {
+        final int stride = mTargetWidth + 1;
+        final int[] s = LumaData.getFromSumPool(stride * (mTargetHeight + 1));
+        Arrays.fill(s, 0, stride, 0);
+
+        if (mTargetWidth == mWidth && mTargetHeight == mHeight) {
+            for (int y = 0; y < mHeight; y++) {
+                int pos = y * rowStride;
+                int row = (y + 1) * stride;
+                int rowSum = 0;
+                s[row] = 0;
+                for (int x = 1; x <= mWidth; x++, pos += pixelStride) {
+                    rowSum += mLuma[buffer.get(pos) & 0xff];
+                    s[row + x] = s[row - stride + x] + rowSum;
+                }
+            }
+        } else {
+            Arrays.fill(mColumnSums, 0);
+
+            for (int y = 0; y < mHeight; y++) {
+                int pos = y * rowStride;
+                for (int x = 0; x < mWidth; x++, pos += pixelStride) {
+                    mColumnSums[mTargetX[x]] += mLuma[buffer.get(pos) & 0xff];
+                }
+
+                // last image row of this target row: compute averages and append to table
+                if (y == mHeight - 1 || mTargetY[y + 1] != mTargetY[y]) {
+                    int ty = mTargetY[y];
+                    int row = (ty + 1) * stride;
+                    int rowSum = 0;
+                    s[row] = 0;
+                    for (int x = 0; x < mTargetWidth; x++) {
+                        // average of the pixels, so box sums stay proportional to full resolution
+                        rowSum += mColumnSums[x] / (mColumnPixels[x] * mRowPixels[ty]);
+                        s[row + x + 1] = s[row - stride + x + 1] + rowSum;
+                        mColumnSums[x] = 0;
+                    }
+                }
+            }
+        }
+
+        return new LumaData(s, mTargetWidth, mTargetHeight);
+    }
+}
@@ -0,0 +1,86 @@
+package de.vier_bier.habpanelviewer.reporting.motion;
+
+import java.util.Arrays;
+
+/**
+ * Set of boxes in which motion has been detected, one bit per box.
+ *
+ * The detector reuses a single instance for every frame, so listeners must not keep a
+ * reference to it after the callback has returned. Iterate without allocating with
+ * <pre>
+ * for (int i = boxes.nextSetBox(0); i >= 0; i = boxes.nextSetBox(i + 1)) {
+ *     int x = i % boxes.getBoxes();
+ *     int y = i / boxes.getBoxes();
+ * }
+ * </pre>
+ */
+public class MotionBoxes {
+    private final int mBoxes;
+    private final long[] mWords;
+
+    MotionBoxes(int boxes) {
+        mBoxes = boxes;
+        mWords = new long[(boxes * boxes + 63) >>> 6];
+    }
+
+    /**
+     * @return number of boxes per row and column
+     */
+    public int getBoxes() {
+        return mBoxes;
+    }
+
+    public boolean isEmpty() {
+        for (long word : mWords) {
+            if (word != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return number of boxes with motion
+     */
+    public int getCount() {
+        int count = 0;
+        for (long word : mWords) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    public boolean isSet(int xBox, int yBox) {
+        int i = yBox * mBoxes + xBox;
+        return (mWords[i >>> 6] & (1L << i)) != 0;
+    }
+
+    /**
+     * @return index (y * boxes + x) of the first box with motion at or after the given index,
+     * or -1 if there is none.
+     */
+    public int nextSetBox(int from) {
+        int w = from >>> 6;
+        if (w >= mWords.length) {
+            return -1;
+        }
+
+        long word = mWords[w] & (-1L << from);
+        while (word == 0) {
+            if (++w == mWords.length) {
+                return -1;
+            }
+            word = mWords[w];
+        }
+        return (w << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    void set(int xBox, int yBox) {
+        int i = yBox * mBoxes + xBox;
+        mWords[i >>> 6] |= 1L << i;
+    }
+
+    void clear() {
+        Arrays.fill(mWords, 0);
+    }
+}
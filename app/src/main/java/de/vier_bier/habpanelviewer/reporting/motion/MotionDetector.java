@@ -3,17 +3,16 @@ package de.vier_bier.habpanelviewer.reporting.motion;
 import android.app.Activity;
 import android.content.SharedPreferences;
 import android.content.res.Resources;
-import android.graphics.Point;
+import android.os.SystemClock;
 import android.util.Log;
 
 import org.greenrobot.eventbus.EventBus;
 import org.greenrobot.eventbus.Subscribe;
 import org.greenrobot.eventbus.ThreadMode;
 
-import java.util.ArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicReference;
 
+import de.vier_bier.habpanelviewer.BuildConfig;
 import de.vier_bier.habpanelviewer.Constants;
 import de.vier_bier.habpanelviewer.R;
 import de.vier_bier.habpanelviewer.openhab.ServerConnection;
@@ -31,22 +30,33 @@ public class MotionDetector extends Thread implements IMotionDetector, ICamera.I
     private boolean mEnabled;
     private int mBoxes = 50;
 
-    private int mSleepTime;
+    // minimum time between two processed frames in ms
+    private volatile int mMinInterval;
+    private volatile long mNextFrameTime;
     private int mLeniency = 20;
+    private float mLearningRate = 1f;
+    private boolean mNoiseAdaption;
+    private boolean mIlluminationCompensation;
+    private int mSuppressedCount = 0;
+    private MotionMask mMask;
     private final MotionReporter mMotionReporter;
     private int mDetectionCount = 0;
     private int mFrameCount = 0;
+    private int mWidth = 640;
+    private int mHeight = 480;
 
-    private LumaData mPreviousState;
     private Comparer mComparer;
     private final Camera mCamera;
-    private final AtomicReference<LumaData> mLumaData = new AtomicReference<>();
+    // single slot handoff from the camera thread, newer frames replace unprocessed ones
+    private final Object mFrameLock = new Object();
+    private LumaData mPendingFrame;
 
     public MotionDetector(Activity context, Camera camera, IMotionListener l, ServerConnection serverConnection) {
         mContext = context;
         mCamera = camera;
 
         mMotionReporter = new MotionReporter(l, serverConnection);
+        LumaData.setLeakDetection(BuildConfig.DEBUG);
         EventBus.getDefault().register(this);
 
         setDaemon(true);
@@ -56,15 +66,16 @@ public class MotionDetector extends Thread implements IMotionDetector, ICamera.I
     public void run() {
         try {
             while (!mStopped.get()) {
+                LumaData greyState;
                 try {
-                    Thread.sleep(mSleepTime);
+                    greyState = awaitFrame();
                 } catch (InterruptedException e) {
                     Thread.currentThread().interrupt();
+                    break;
                 }
 
-                LumaData greyState = getLumaData();
-
                 if (greyState != null) {
+                    mNextFrameTime = SystemClock.elapsedRealtime() + mMinInterval;
                     Log.v(TAG, "processing frame");
 
                     mFrameCount++;
@@ -72,9 +83,10 @@ public class MotionDetector extends Thread implements IMotionDetector, ICamera.I
                     int minLuma = 1000;
                     if (greyState.isDarker(minLuma)) {
                         Log.v(TAG, "too dark");
+                        greyState.release();
                         mMotionReporter.tooDark();
                     } else {
-                        ArrayList<Point> differing = detect(greyState);
+                        MotionBoxes differing = detect(greyState);
                         if (differing != null && !differing.isEmpty()) {
                             mDetectionCount++;
                             mMotionReporter.motionDetected(differing);
@@ -90,19 +102,29 @@ public class MotionDetector extends Thread implements IMotionDetector, ICamera.I
         }
     }
 
-    private LumaData getLumaData() {
-        return mLumaData.getAndSet(null);
+    private LumaData awaitFrame() throws InterruptedException {
+        synchronized (mFrameLock) {
+            while (mPendingFrame == null && !mStopped.get()) {
+                mFrameLock.wait();
+            }
+
+            LumaData frame = mPendingFrame;
+            mPendingFrame = null;
+            return frame;
+        }
     }
 
     @Subscribe(threadMode = ThreadMode.MAIN)
     public void onMessageEvent(ApplicationStatus status) {
         if (mEnabled) {
             Resources res = mContext.getResources();
-            status.set(mContext.getString(R.string.pref_motion), mContext.getString(R.string.enabled) + "\n" + (mContext.getString(R.string.resolution, 640, 480) + "\n"
+            status.set(mContext.getString(R.string.pref_motion), mContext.getString(R.string.enabled) + "\n" + (mContext.getString(R.string.resolution, mWidth, mHeight) + "\n"
                     + res.getQuantityString(R.plurals.boxesLeniency, mBoxes, mBoxes, mLeniency) + "\n"
                     + res.getQuantityString(R.plurals.frames, mFrameCount, mFrameCount)
                     + res.getQuantityString(R.plurals.motionDetected, mDetectionCount, mDetectionCount) + "\n"
-                    + mContext.getString(R.string.timeBetweenDetections, mSleepTime)));
+                    + res.getQuantityString(R.plurals.illuminationSuppressed, mSuppressedCount, mSuppressedCount) + "\n"
+                    + mContext.getString(R.string.timeBetweenDetections, mMinInterval) + "\n"
+                    + mContext.getString(R.string.framePool, LumaData.getSumPool().getHits(), LumaData.getSumPool().getMisses())));
         } else {
             status.set(mContext.getString(R.string.pref_motion), mContext.getString(R.string.disabled));
         }
@@ -116,6 +138,9 @@ public class MotionDetector extends Thread implements IMotionDetector, ICamera.I
         stopDetection();
 
         mStopped.set(true);
+        synchronized (mFrameLock) {
+            mFrameLock.notifyAll();
+        }
     }
 
     @Override
@@ -123,23 +148,34 @@ public class MotionDetector extends Thread implements IMotionDetector, ICamera.I
         boolean newEnabled = prefs.getBoolean(Constants.PREF_MOTION_DETECTION_ENABLED, false);
         int newBoxes = Integer.parseInt(prefs.getString(Constants.PREF_MOTION_DETECTION_GRANULARITY, "20"));
         int newLeniency = Integer.parseInt(prefs.getString(Constants.PREF_MOTION_DETECTION_LENIENCY, "20"));
+        float newLearningRate = Integer.parseInt(prefs.getString(Constants.PREF_MOTION_DETECTION_ADAPTION, "100")) / 100f;
+        boolean newNoiseAdaption = prefs.getBoolean(Constants.PREF_MOTION_DETECTION_NOISE, false);
+        boolean newIlluminationCompensation = prefs.getBoolean(Constants.PREF_MOTION_DETECTION_ILLUMINATION, false);
+        MotionMask newMask = MotionMask.fromString(prefs.getString(Constants.PREF_MOTION_DETECTION_MASK, ""), newBoxes);
 
-        mSleepTime = Integer.parseInt(prefs.getString(Constants.PREF_MOTION_DETECTION_SLEEP, "500"));
+        mMinInterval = Integer.parseInt(prefs.getString(Constants.PREF_MOTION_DETECTION_SLEEP, "500"));
 
         if (newEnabled) {
-            boolean changed = newBoxes != mBoxes || newLeniency != mLeniency;
+            boolean changed = newBoxes != mBoxes || newLeniency != mLeniency
+                    || newLearningRate != mLearningRate || newNoiseAdaption != mNoiseAdaption
+                    || newIlluminationCompensation != mIlluminationCompensation
+                    || mMask == null || !newMask.toString().equals(mMask.toString());
 
             if (changed) {
+                mBoxes = newBoxes;
+                mLeniency = newLeniency;
+                mLearningRate = newLearningRate;
+                mNoiseAdaption = newNoiseAdaption;
+                mIlluminationCompensation = newIlluminationCompensation;
+                mMask = newMask;
                 mComparer = null;
-                mPreviousState = null;
             }
 
             if (!mEnabled) {
                 mMotionReporter.updateFromPreferences(prefs);
 
-                mBoxes = newBoxes;
-                mLeniency = newLeniency;
                 mDetectionCount = 0;
+                mSuppressedCount = 0;
                 mFrameCount = 0;
 
                 mCamera.addLumaListener(this);
@@ -150,29 +186,40 @@ public class MotionDetector extends Thread implements IMotionDetector, ICamera.I
         }
     }
 
+    @Override
+    public synchronized void setMask(String mask) {
+        mMask = MotionMask.fromString(mask, mBoxes);
+
+        // the background model is kept
+        if (mComparer != null) {
+            mComparer.setMask(mMask);
+        }
+    }
+
     @Override
     public Camera getCamera() {
         return mCamera;
     }
 
-    private synchronized ArrayList<Point> detect(LumaData s) {
-        if (mComparer == null) {
-            mComparer = new Comparer(s.getWidth(), s.getHeight(), mBoxes, mLeniency);
+    private synchronized MotionBoxes detect(LumaData s) {
+        // (re)create background model if settings or detection resolution have been changed
+        if (mComparer == null || s.getWidth() != mWidth || s.getHeight() != mHeight) {
+            mWidth = s.getWidth();
+            mHeight = s.getHeight();
+            mComparer = new Comparer(mWidth, mHeight, mBoxes, mLeniency, mLearningRate, mNoiseAdaption,
+                    mIlluminationCompensation);
+            mComparer.setMask(mMask);
         }
 
-        if (mPreviousState == null) {
-            mPreviousState = s;
-            return null;
-        }
+        // the frame has been folded into the model and is not needed anymore
+        MotionBoxes differing = mComparer.update(s);
+        s.release();
 
-        if (s.getWidth() != mPreviousState.getWidth() || s.getHeight() != mPreviousState.getHeight()) {
-            return null;
+        if (mComparer.isIlluminationChange()) {
+            Log.v(TAG, "illumination change suppressed");
+            mSuppressedCount++;
         }
 
-        ArrayList<Point> differing = mComparer.isDifferent(s, mPreviousState);
-        mPreviousState.release();
-        mPreviousState = s;
-
         return differing;
     }
 
@@ -180,16 +227,40 @@ public class MotionDetector extends Thread implements IMotionDetector, ICamera.I
         mCamera.removeLumaListener(this);
         mEnabled = false;
         mComparer = null;
-        mPreviousState = null;
+
+        LumaData pending;
+        synchronized (mFrameLock) {
+            pending = mPendingFrame;
+            mPendingFrame = null;
+        }
+        if (pending != null) {
+            pending.release();
+        }
     }
 
     @Override
     public void preview(LumaData greyState) {
-        mLumaData.set(greyState);
+        LumaData unprocessed;
+        synchronized (mFrameLock) {
+            unprocessed = mPendingFrame;
+            mPendingFrame = greyState;
+            mFrameLock.notifyAll();
+        }
+
+        if (unprocessed != null) {
+            unprocessed.release();
+        }
     }
 
     @Override
     public boolean needsPreview() {
-        return mLumaData.get() == null;
+        // do not even read frames from the camera before the minimum interval has passed
+        if (SystemClock.elapsedRealtime() < mNextFrameTime) {
+            return false;
+        }
+
+        synchronized (mFrameLock) {
+            return mPendingFrame == null;
+        }
     }
 }
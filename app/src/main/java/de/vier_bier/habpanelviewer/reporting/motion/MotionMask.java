@@ -0,0 +1,124 @@
+package de.vier_bier.habpanelviewer.reporting.motion;
+
+import java.util.BitSet;
+
+/**
+ * Region of interest for motion detection. Holds one bit per box that marks the box as
+ * excluded from detection. Masks are immutable, so they can be shared between threads.
+ */
+class MotionMask {
+    private final int mBoxes;
+    private final BitSet mExcluded;
+
+    MotionMask(int boxes) {
+        this(boxes, new BitSet(boxes * boxes));
+    }
+
+    private MotionMask(int boxes, BitSet excluded) {
+        mBoxes = boxes;
+        mExcluded = excluded;
+    }
+
+    /**
+     * Parses a mask as created by toString.
+     *
+     * @return the parsed mask or an empty mask with the given box count if the string is invalid
+     */
+    static MotionMask fromString(String mask, int boxes) {
+        if (mask != null) {
+            int idx = mask.indexOf(':');
+
+            try {
+                int maskBoxes = idx > 0 ? Integer.parseInt(mask.substring(0, idx)) : 0;
+                if (maskBoxes > 0) {
+                    String[] words = mask.substring(idx + 1).split(",");
+
+                    long[] longs = new long[words.length];
+                    for (int i = 0; i < words.length; i++) {
+                        longs[i] = parseHex(words[i]);
+                    }
+
+                    return new MotionMask(maskBoxes, BitSet.valueOf(longs));
+                }
+            } catch (NumberFormatException e) {
+                // invalid mask, ignore it
+            }
+        }
+
+        return new MotionMask(boxes);
+    }
+
+    // Long.parseUnsignedLong is not available before API 26
+    private static long parseHex(String word) {
+        if (word.isEmpty()) {
+            return 0;
+        }
+
+        if (word.length() > 8) {
+            int split = word.length() - 8;
+            return Long.parseLong(word.substring(0, split), 16) << 32 | Long.parseLong(word.substring(split), 16);
+        }
+        return Long.parseLong(word, 16);
+    }
+
+    int getBoxes() {
+        return mBoxes;
+    }
+
+    boolean isEmpty() {
+        return mExcluded.isEmpty();
+    }
+
+    boolean isExcluded(int xBox, int yBox) {
+        return mExcluded.get(yBox * mBoxes + xBox);
+    }
+
+    /**
+     * @return a copy of this mask with the given box included if it was excluded and vice versa.
+     */
+    MotionMask toggle(int xBox, int yBox) {
+        BitSet excluded = (BitSet) mExcluded.clone();
+        excluded.flip(yBox * mBoxes + xBox);
+        return new MotionMask(mBoxes, excluded);
+    }
+
+    /**
+     * Creates a mask for a different box count. Every new box takes over the state of the old
+     * box that contains its center.
+     */
+    MotionMask rescale(int boxes) {
+        if (boxes == mBoxes) {
+            return this;
+        }
+
+        BitSet excluded = new BitSet(boxes * boxes);
+        if (!mExcluded.isEmpty()) {
+            for (int y = 0; y < boxes; y++) {
+                int oldY = (2 * y + 1) * mBoxes / (2 * boxes);
+                for (int x = 0; x < boxes; x++) {
+                    int oldX = (2 * x + 1) * mBoxes / (2 * boxes);
+                    if (isExcluded(oldX, oldY)) {
+                        excluded.set(y * boxes + x);
+                    }
+                }
+            }
+        }
+
+        return new MotionMask(boxes, excluded);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder b = new StringBuilder();
+        b.append(mBoxes).append(':');
+
+        long[] longs = mExcluded.toLongArray();
+        for (int i = 0; i < longs.length; i++) {
+            if (i > 0) {
+                b.append(',');
+            }
+            b.append(Long.toHexString(longs[i]));
+        }
+        return b.toString();
+    }
+}
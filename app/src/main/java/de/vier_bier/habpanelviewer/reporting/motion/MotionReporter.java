@@ -1,18 +1,15 @@
 package de.vier_bier.habpanelviewer.reporting.motion;
 
 import android.content.SharedPreferences;
-import android.graphics.Point;
-
-import java.util.ArrayList;
 
 import de.vier_bier.habpanelviewer.Constants;
-import de.vier_bier.habpanelviewer.openhab.ServerConnection;
+import de.vier_bier.habpanelviewer.openhab.average.IStatePropagator;
 
 /**
  * Reports motion events to openHAB.
  */
 public class MotionReporter extends IMotionListener.MotionAdapter {
-    private final ServerConnection mServerConnection;
+    private final IStatePropagator mServerConnection;
     private final IMotionListener mListener;
 
     private long mLastMotionTime;
@@ -21,13 +18,13 @@ public class MotionReporter extends IMotionListener.MotionAdapter {
     private String mMotionItem;
     private int mMotionTimeout;
 
-    MotionReporter(IMotionListener l, ServerConnection serverConnection) {
+    MotionReporter(IMotionListener l, IStatePropagator serverConnection) {
         mServerConnection = serverConnection;
         mListener = l;
     }
 
     @Override
-    public void motionDetected(ArrayList<Point> differing) {
+    public void motionDetected(MotionBoxes differing) {
         mListener.motionDetected(differing);
 
         mLastMotionTime = System.currentTimeMillis();
@@ -10,27 +10,36 @@ import android.graphics.Point;
 import android.graphics.PorterDuff;
 import android.graphics.Rect;
 import com.google.android.material.navigation.NavigationView;
+import android.view.MotionEvent;
 import android.view.SurfaceView;
 
-import java.util.ArrayList;
-
 import de.vier_bier.habpanelviewer.Constants;
 import de.vier_bier.habpanelviewer.R;
 
 /**
- * Visualizes motion areas on the given mSurface view.
+ * Visualizes motion areas on the given mSurface view. Tapping a box toggles whether it is
+ * excluded from motion detection.
  */
 public class MotionVisualizer implements IMotionListener {
     private final SurfaceView mMotionView;
     private final NavigationView mNavigationView;
     private final SharedPreferences mPreferences;
     private final Paint mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mMaskPaint = new Paint();
+    private final String mMotionText;
+    private final String mDarkText;
     private final int mMotionTextWidth;
     private final int mDarkTextWidth;
+    // reused for clipping on every frame
+    private final Rect mDrawerRect = new Rect();
+    private final Rect mViewRect = new Rect();
 
     private final int mCameraRotation;
     private int mCorrectionAngle;
 
+    private volatile MotionMask mMask;
+    private IMaskListener mMaskListener;
+
     public MotionVisualizer(SurfaceView motionView, NavigationView navigationView, SharedPreferences preferences, int cameraRotation, int scaledSize) {
         mMotionView = motionView;
         mNavigationView = navigationView;
@@ -47,16 +56,103 @@ public class MotionVisualizer implements IMotionListener {
         mPaint.setStyle(Paint.Style.STROKE);
         mPaint.setTextSize(scaledSize);
 
+        mMotionText = mNavigationView.getContext().getString(R.string.motion);
+        mDarkText = mNavigationView.getContext().getString(R.string.tooDark);
+
         Rect bounds = new Rect();
-        mPaint.getTextBounds(mNavigationView.getContext().getString(R.string.motion), 0, 6, bounds);
+        mPaint.getTextBounds(mMotionText, 0, 6, bounds);
         mMotionTextWidth = bounds.width();
 
-        mPaint.getTextBounds(mNavigationView.getContext().getString(R.string.tooDark), 0, 8, bounds);
+        mPaint.getTextBounds(mDarkText, 0, 8, bounds);
         mDarkTextWidth = bounds.width();
+
+        mMaskPaint.setColor(Color.argb(128, 128, 128, 128));
+        mMaskPaint.setStyle(Paint.Style.FILL);
+
+        mMotionView.setOnTouchListener((v, event) -> {
+            // the view overlays the web view, so only consume touches while the preview is shown
+            if (!mPreferences.getBoolean(Constants.PREF_MOTION_DETECTION_PREVIEW, false)
+                    || !mPreferences.getBoolean(Constants.PREF_MOTION_DETECTION_ENABLED, false)) {
+                return false;
+            }
+
+            if (event.getAction() == MotionEvent.ACTION_UP) {
+                toggleBox(event.getX(), event.getY());
+                v.performClick();
+            }
+            return true;
+        });
+    }
+
+    /**
+     * Sets the listener that is notified when the user changed the motion mask.
+     */
+    public void setOnMaskChangedListener(IMaskListener listener) {
+        mMaskListener = listener;
+    }
+
+    private void toggleBox(float x, float y) {
+        int boxes = Integer.parseInt(mPreferences.getString(Constants.PREF_MOTION_DETECTION_GRANULARITY, "20"));
+        int cx = Math.min(boxes - 1, Math.max(0, (int) (x * boxes / mMotionView.getWidth())));
+        int cy = Math.min(boxes - 1, Math.max(0, (int) (y * boxes / mMotionView.getHeight())));
+
+        Point p = correctViewRotation(cx, cy, mCorrectionAngle, boxes);
+        MotionMask mask = getMask(boxes).toggle(p.x, p.y);
+        mMask = mask;
+        mPreferences.edit().putString(Constants.PREF_MOTION_DETECTION_MASK, mask.toString()).apply();
+
+        if (mMaskListener != null) {
+            mMaskListener.maskChanged(mask.toString());
+        }
+    }
+
+    private MotionMask getMask(int boxes) {
+        MotionMask mask = mMask;
+        if (mask == null) {
+            mask = MotionMask.fromString(mPreferences.getString(Constants.PREF_MOTION_DETECTION_MASK, ""), boxes);
+        }
+        mask = mask.rescale(boxes);
+        mMask = mask;
+
+        return mask;
+    }
+
+    private void drawMask(Canvas canvas, int boxes, float xsize, float ysize) {
+        MotionMask mask = getMask(boxes);
+        if (mask.isEmpty()) {
+            return;
+        }
+
+        for (int y = 0; y < boxes; y++) {
+            for (int x = 0; x < boxes; x++) {
+                if (mask.isExcluded(x, y)) {
+                    drawBox(canvas, x, y, boxes, xsize, ysize, mCorrectionAngle, mMaskPaint);
+                }
+            }
+        }
+    }
+
+    private static void drawBox(Canvas canvas, int x, int y, int boxes, float xsize, float ysize, int correctionAngle, Paint paint) {
+        float left = sensorToViewX(x, y, correctionAngle, boxes) * xsize;
+        float top = sensorToViewY(x, y, correctionAngle, boxes) * ysize;
+        canvas.drawRect(left, top, left + xsize, top + ysize, paint);
+    }
+
+    /**
+     * Draws the differing boxes over the whole canvas, rotated to the view.
+     */
+    static void drawBoxes(Canvas canvas, MotionBoxes differing, int correctionAngle, Paint paint) {
+        // the detector may still use another granularity if preferences have just been changed
+        int boxes = differing.getBoxes();
+        float xsize = canvas.getWidth() / (float) boxes;
+        float ysize = canvas.getHeight() / (float) boxes;
+        for (int i = differing.nextSetBox(0); i >= 0; i = differing.nextSetBox(i + 1)) {
+            drawBox(canvas, i % boxes, i / boxes, boxes, xsize, ysize, correctionAngle, paint);
+        }
     }
 
     @Override
-    public void motionDetected(ArrayList<Point> differing) {
+    public void motionDetected(MotionBoxes differing) {
         boolean showPreview = mPreferences.getBoolean(Constants.PREF_MOTION_DETECTION_PREVIEW, false);
         boolean motionDetection = mPreferences.getBoolean(Constants.PREF_MOTION_DETECTION_ENABLED, false);
 
@@ -72,10 +168,10 @@ public class MotionVisualizer implements IMotionListener {
                     canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
 
                     if (mNavigationView.isShown()) {
-                        Rect r1 = new Rect();
+                        Rect r1 = mDrawerRect;
                         mNavigationView.getGlobalVisibleRect(r1);
 
-                        Rect r2 = new Rect();
+                        Rect r2 = mViewRect;
                         mMotionView.getGlobalVisibleRect(r2);
 
                         if (r1.left == 0) {
@@ -87,12 +183,9 @@ public class MotionVisualizer implements IMotionListener {
                         }
                     }
 
-                    canvas.drawText(mNavigationView.getContext().getString(R.string.motion), (canvas.getWidth() - mMotionTextWidth) / 2f, 50, mPaint);
-
-                    for (Point p : differing) {
-                        Point c = correctSensorRotation(p, mCorrectionAngle, boxes);
-                        canvas.drawRect(c.x * xsize, c.y * ysize, c.x * xsize + xsize, c.y * ysize + ysize, mPaint);
-                    }
+                    drawMask(canvas, boxes, xsize, ysize);
+                    canvas.drawText(mMotionText, (canvas.getWidth() - mMotionTextWidth) / 2f, 50, mPaint);
+                    drawBoxes(canvas, differing, mCorrectionAngle, mPaint);
                 } finally {
                     mMotionView.getHolder().unlockCanvasAndPost(canvas);
                 }
@@ -100,15 +193,40 @@ public class MotionVisualizer implements IMotionListener {
         }
     }
 
-    private Point correctSensorRotation(Point p, int correctionAngle, int boxes) {
+    private static int sensorToViewX(int x, int y, int correctionAngle, int boxes) {
+        if (correctionAngle == 270) {
+            return boxes - 1 - y;
+        } else if (correctionAngle == 180) {
+            return boxes - 1 - x;
+        } else if (correctionAngle == 90) {
+            return y;
+        } else {
+            return x;
+        }
+    }
+
+    private static int sensorToViewY(int x, int y, int correctionAngle, int boxes) {
+        if (correctionAngle == 270) {
+            return boxes - 1 - x;
+        } else if (correctionAngle == 180) {
+            return y;
+        } else if (correctionAngle == 90) {
+            return boxes - 1 - x;
+        } else {
+            return boxes - 1 - y;
+        }
+    }
+
+    // inverse of sensorToViewX and sensorToViewY
+    private Point correctViewRotation(int x, int y, int correctionAngle, int boxes) {
         if (correctionAngle == 270) {
-            return new Point(boxes - 1 - p.y, boxes - 1 - p.x);
+            return new Point(boxes - 1 - y, boxes - 1 - x);
         } else if (correctionAngle == 180) {
-            return new Point(boxes - 1 - p.x, p.y);
+            return new Point(boxes - 1 - x, y);
         } else if (correctionAngle == 90) {
-            return new Point(p.y, boxes - 1 - p.x);
+            return new Point(boxes - 1 - y, x);
         } else {
-            return new Point(p.x, boxes - 1 - p.y);
+            return new Point(x, boxes - 1 - y);
         }
     }
 
@@ -120,8 +238,14 @@ public class MotionVisualizer implements IMotionListener {
         if (showPreview && motionDetection && mMotionView.getHolder().getSurface().isValid()) {
             final Canvas canvas = mMotionView.getHolder().lockCanvas();
             if (canvas != null) {
-                canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
-                mMotionView.getHolder().unlockCanvasAndPost(canvas);
+                try {
+                    int boxes = Integer.parseInt(mPreferences.getString(Constants.PREF_MOTION_DETECTION_GRANULARITY, "20"));
+
+                    canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+                    drawMask(canvas, boxes, canvas.getWidth() / (float) boxes, canvas.getHeight() / (float) boxes);
+                } finally {
+                    mMotionView.getHolder().unlockCanvasAndPost(canvas);
+                }
             }
         }
     }
@@ -134,7 +258,7 @@ public class MotionVisualizer implements IMotionListener {
         if (showPreview && motionDetection && mMotionView.getHolder().getSurface().isValid()) {
             final Canvas canvas = mMotionView.getHolder().lockCanvas();
             if (canvas != null) {
-                canvas.drawText(mNavigationView.getContext().getString(R.string.tooDark), (canvas.getWidth() - mDarkTextWidth) / 2f, 50, mPaint);
+                canvas.drawText(mDarkText, (canvas.getWidth() - mDarkTextWidth) / 2f, 50, mPaint);
                 mMotionView.getHolder().unlockCanvasAndPost(canvas);
             }
         }
@@ -143,4 +267,11 @@ public class MotionVisualizer implements IMotionListener {
     public void setDeviceRotation(int newDeviceRotation) {
         mCorrectionAngle = (mCameraRotation - newDeviceRotation * 90 + 360) % 360;
     }
+
+    public interface IMaskListener {
+        /**
+         * @param mask the new mask as stored in the preferences
+         */
+        void maskChanged(String mask);
+    }
 }
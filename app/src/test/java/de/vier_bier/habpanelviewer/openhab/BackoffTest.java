@@ -0,0 +1,58 @@
+package de.vier_bier.habpanelviewer.openhab;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BackoffTest {
+    @Test
+    public void testDelaysStayWithinBounds() {
+        Backoff b = new Backoff(500, 30000, new Random(1));
+
+        long max = 0;
+        for (int i = 0; i < 1000; i++) {
+            long delay = b.nextDelay();
+            assertTrue(delay >= 500 && delay <= 30000);
+            max = Math.max(max, delay);
+        }
+        // the delay grows towards the cap
+        assertTrue(max > 20000);
+
+        b.setCap(2000);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(b.nextDelay() <= 2000);
+        }
+
+        // the cap can not be lower than the base delay
+        b.setCap(0);
+        assertEquals(500, b.getCap());
+    }
+
+    @Test
+    public void testResetStartsOver() {
+        Backoff b = new Backoff(500, 30000, new Random(2));
+        for (int i = 0; i < 20; i++) {
+            b.nextDelay();
+        }
+
+        b.reset();
+        assertTrue(b.nextDelay() <= 1500);
+    }
+
+    @Test
+    public void testClientsAreNotInLockstep() {
+        Backoff b1 = new Backoff(500, 30000, new Random(3));
+        Backoff b2 = new Backoff(500, 30000, new Random(4));
+
+        int equal = 0;
+        for (int i = 0; i < 10; i++) {
+            if (b1.nextDelay() == b2.nextDelay()) {
+                equal++;
+            }
+        }
+        assertTrue(equal < 10);
+    }
+}
@@ -0,0 +1,150 @@
+package de.vier_bier.habpanelviewer.openhab;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ItemStateStoreTest {
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 2000;
+
+    private final ItemStateStore mStore = new ItemStateStore();
+
+    @Test
+    public void testStates() {
+        assertTrue(mStore.setState("A", "1"));
+        assertFalse(mStore.setState("A", "1"));
+        assertTrue(mStore.setState("A", "2"));
+        assertEquals("2", mStore.getState("A"));
+
+        mStore.removeState("A");
+        assertNull(mStore.getState("A"));
+
+        assertTrue(mStore.setSentState("A", "1"));
+        assertFalse(mStore.setSentState("A", "1"));
+        assertTrue(mStore.isSentState("A", "1"));
+        assertFalse(mStore.isSentState("A", "2"));
+    }
+
+    @Test
+    public void testSubscriptions() {
+        ItemStateStore.Subscriptions s = mStore.mItemSubscriptions;
+        IStateUpdateListener l1 = (name, value) -> { };
+        IStateUpdateListener l2 = (name, value) -> { };
+
+        assertTrue(s.add("A", l1));
+        assertFalse(s.add("A", l1));
+        assertFalse(s.add("A", l2));
+        assertEquals(2, s.getListeners("A").size());
+
+        assertFalse(s.remove("A", l1));
+        assertFalse(s.remove("A", l1));
+        assertTrue(s.remove("A", l2));
+        assertFalse(s.contains("A"));
+        assertTrue(s.getListeners("A").isEmpty());
+    }
+
+    @Test
+    public void testConcurrentStateChanges() throws Exception {
+        final AtomicInteger changes = new AtomicInteger();
+        final CyclicBarrier barrier = new CyclicBarrier(THREADS);
+
+        runThreads(t -> {
+            for (int i = 0; i < ROUNDS; i++) {
+                barrier.await();
+
+                // all threads report the same state, only one of them may send it
+                if (mStore.setSentState("Item", String.valueOf(i))) {
+                    changes.incrementAndGet();
+                }
+            }
+        });
+
+        assertEquals(ROUNDS, changes.get());
+    }
+
+    @Test
+    public void testConcurrentSubscriptions() throws Exception {
+        final ItemStateStore.Subscriptions s = mStore.mItemSubscriptions;
+        final AtomicInteger firstListener = new AtomicInteger();
+        final AtomicInteger lastListener = new AtomicInteger();
+        final AtomicInteger notified = new AtomicInteger();
+
+        runThreads(t -> {
+            IStateUpdateListener l = (name, value) -> notified.incrementAndGet();
+
+            for (int i = 0; i < ROUNDS; i++) {
+                String item = "Item" + (i % 4);
+                if (s.add(item, l)) {
+                    firstListener.incrementAndGet();
+                }
+
+                // iterating while other threads modify the list
+                for (IStateUpdateListener listener : s.getListeners(item)) {
+                    listener.itemUpdated(item, "ON");
+                }
+
+                if (s.remove(item, l)) {
+                    lastListener.incrementAndGet();
+                }
+            }
+
+            // stays subscribed
+            if (s.add("Item" + t, l)) {
+                firstListener.incrementAndGet();
+            }
+        });
+
+        // every item that got a first listener lost its last listener again, except the subscribed ones
+        HashSet<String> remaining = new HashSet<>();
+        for (int t = 0; t < THREADS; t++) {
+            remaining.add("Item" + t);
+            assertEquals(1, s.getListeners("Item" + t).size());
+        }
+        assertEquals(remaining, s.getItems());
+        assertEquals(firstListener.get(), lastListener.get() + THREADS);
+        assertTrue(notified.get() >= THREADS * ROUNDS);
+    }
+
+    private void runThreads(Task task) throws Exception {
+        final List<Thread> threads = new ArrayList<>();
+        final List<Throwable> errors = new ArrayList<>();
+
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            threads.add(new Thread(() -> {
+                try {
+                    task.run(thread);
+                } catch (Throwable e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            }));
+        }
+
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        if (!errors.isEmpty()) {
+            throw new AssertionError(errors.get(0));
+        }
+    }
+
+    private interface Task {
+        void run(int thread) throws Exception;
+    }
+}
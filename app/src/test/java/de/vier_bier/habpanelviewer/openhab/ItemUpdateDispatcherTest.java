@@ -0,0 +1,139 @@
+package de.vier_bier.habpanelviewer.openhab;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ItemUpdateDispatcherTest {
+    private final List<String> mUpdates = new ArrayList<>();
+    // blocks the listener until released
+    private final CountDownLatch mBlocked = new CountDownLatch(1);
+    private final CountDownLatch mRelease = new CountDownLatch(1);
+
+    private final ItemUpdateDispatcher mDispatcher = new ItemUpdateDispatcher("test", 4, (name, value) -> {
+        if ("Block".equals(name)) {
+            mBlocked.countDown();
+            try {
+                mRelease.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        synchronized (mUpdates) {
+            mUpdates.add(name + "=" + value);
+        }
+    });
+
+    @Test
+    public void testUpdatesAreDeliveredInOrder() throws InterruptedException {
+        mDispatcher.offerState("A", "1");
+        mDispatcher.offerCommand("Cmd", "RELOAD");
+        mDispatcher.offerState("B", "1");
+
+        assertTrue(mDispatcher.awaitIdle(1000));
+        assertEquals("[A=1, Cmd=RELOAD, B=1]", mUpdates.toString());
+        assertEquals(3, mDispatcher.getDispatchedCount());
+        mDispatcher.stop();
+    }
+
+    @Test
+    public void testStatesAreCoalesced() throws InterruptedException {
+        block();
+
+        mDispatcher.offerState("A", "1");
+        mDispatcher.offerCommand("Cmd", "RELOAD");
+        mDispatcher.offerState("A", "2");
+        mDispatcher.offerCommand("Cmd", "RELOAD");
+        mDispatcher.offerState("A", "3");
+
+        mRelease.countDown();
+        assertTrue(mDispatcher.awaitIdle(1000));
+        // the state is moved behind the commands, commands are not merged
+        assertEquals("[Block=ON, Cmd=RELOAD, Cmd=RELOAD, A=3]", mUpdates.toString());
+        assertEquals(2, mDispatcher.getCoalescedCount());
+        assertEquals(3, mDispatcher.getMaxDepth());
+        mDispatcher.stop();
+    }
+
+    @Test
+    public void testOldestIsDroppedWhenFull() throws InterruptedException {
+        block();
+
+        for (int i = 0; i < 6; i++) {
+            mDispatcher.offerState("Item" + i, "ON");
+        }
+        assertEquals(4, mDispatcher.getDepth());
+
+        // a dropped state update is queued again at the end
+        mDispatcher.offerState("Item0", "OFF");
+
+        mRelease.countDown();
+        assertTrue(mDispatcher.awaitIdle(1000));
+        assertEquals("[Block=ON, Item3=ON, Item4=ON, Item5=ON, Item0=OFF]", mUpdates.toString());
+        assertEquals(3, mDispatcher.getDroppedCount());
+        mDispatcher.stop();
+    }
+
+    @Test
+    public void testStatesAreDroppedBeforeCommands() throws InterruptedException {
+        block();
+
+        mDispatcher.offerCommand("Cmd", "RELOAD");
+        for (int i = 0; i < 3; i++) {
+            mDispatcher.offerState("Item" + i, "ON");
+        }
+        mDispatcher.offerCommand("Cmd", "MUTE");
+        mDispatcher.offerCommand("Cmd", "UNMUTE");
+
+        mRelease.countDown();
+        assertTrue(mDispatcher.awaitIdle(1000));
+        assertEquals("[Block=ON, Cmd=RELOAD, Item2=ON, Cmd=MUTE, Cmd=UNMUTE]", mUpdates.toString());
+        assertEquals(2, mDispatcher.getDroppedCount());
+        mDispatcher.stop();
+    }
+
+    @Test
+    public void testOldestCommandIsDroppedWithoutStates() throws InterruptedException {
+        block();
+
+        for (int i = 0; i < 5; i++) {
+            mDispatcher.offerCommand("Cmd", "C" + i);
+        }
+
+        mRelease.countDown();
+        assertTrue(mDispatcher.awaitIdle(1000));
+        assertEquals("[Block=ON, Cmd=C1, Cmd=C2, Cmd=C3, Cmd=C4]", mUpdates.toString());
+        assertEquals(1, mDispatcher.getDroppedCount());
+        mDispatcher.stop();
+    }
+
+    @Test
+    public void testFailingListenerDoesNotStopDelivery() throws InterruptedException {
+        ItemUpdateDispatcher dispatcher = new ItemUpdateDispatcher("test", 4, (name, value) -> {
+            if ("Fail".equals(name)) {
+                throw new IllegalStateException();
+            }
+            mUpdates.add(name + "=" + value);
+        });
+
+        dispatcher.offerState("Fail", "ON");
+        dispatcher.offerState("A", "ON");
+
+        assertTrue(dispatcher.awaitIdle(1000));
+        assertEquals("[A=ON]", mUpdates.toString());
+        dispatcher.stop();
+    }
+
+    // occupies the dispatcher thread until mRelease is counted down
+    private void block() throws InterruptedException {
+        mDispatcher.offerState("Block", "ON");
+        assertTrue(mBlocked.await(1, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,81 @@
+package de.vier_bier.habpanelviewer.openhab;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.LinkedHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ItemsParserTest {
+    private final LinkedHashMap<String, String> mStates = new LinkedHashMap<>();
+
+    @Test
+    public void testItems() throws IOException {
+        parse("[{\"name\":\"Light\",\"state\":\"ON\"},{\"state\":\"21.5\",\"name\":\"Temperature\"}]");
+        assertEquals(2, mStates.size());
+        assertEquals("ON", mStates.get("Light"));
+        assertEquals("21.5", mStates.get("Temperature"));
+    }
+
+    @Test
+    public void testEmptyList() throws IOException {
+        parse(" [ ] ");
+        assertTrue(mStates.isEmpty());
+    }
+
+    @Test
+    public void testOtherMembersAreSkipped() throws IOException {
+        parse("[ {\n"
+                + "  \"link\" : \"http://host/rest/items/Light\",\n"
+                + "  \"tags\" : [ \"Lighting\", \"]\" ],\n"
+                + "  \"stateDescription\" : { \"pattern\" : \"%s\", \"options\" : [ { \"value\" : \"}\" } ] },\n"
+                + "  \"editable\" : false,\n"
+                + "  \"name\" : \"Light\",\n"
+                + "  \"state\" : \"OFF\",\n"
+                + "  \"groupNames\" : [ ]\n"
+                + "} ]");
+        assertEquals(1, mStates.size());
+        assertEquals("OFF", mStates.get("Light"));
+    }
+
+    @Test
+    public void testEscapes() throws IOException {
+        parse("[{\"name\":\"Text\",\"state\":\"a \\\"quoted\\\" \\\\ line\\nK\\u00fcche\"}]");
+        assertEquals("a \"quoted\" \\ line\nK\u00fcche", mStates.get("Text"));
+    }
+
+    @Test
+    public void testItemsWithoutStateAreSkipped() throws IOException {
+        parse("[{\"name\":\"Null\",\"state\":null},{\"name\":\"Missing\"},{},{\"name\":\"Number\",\"state\":42}]");
+        assertEquals(1, mStates.size());
+        assertEquals("42", mStates.get("Number"));
+    }
+
+    @Test
+    public void testMalformedList() {
+        assertMalformed("");
+        assertMalformed("{\"name\":\"Light\",\"state\":\"ON\"}");
+        assertMalformed("[{\"name\":\"Light\",\"state\":\"ON\"}");
+        assertMalformed("[{\"name\":\"Light\" \"state\":\"ON\"}]");
+        assertMalformed("[{\"name\":\"Light\",\"state\":\"O");
+        assertMalformed("[{\"name\":\"Light\",\"state\":\"\\x\"}]");
+    }
+
+    private void parse(String json) throws IOException {
+        mStates.clear();
+        new ItemsParser(new StringReader(json)).parse(mStates::put);
+    }
+
+    private void assertMalformed(String json) {
+        try {
+            parse(json);
+            fail("malformed list has been parsed: " + json);
+        } catch (IOException expected) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package de.vier_bier.habpanelviewer.openhab;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OpenhabEventParserTest {
+    private final OpenhabEventParser mParser = new OpenhabEventParser();
+
+    @Test
+    public void testItemEvents() {
+        assertTrue(mParser.parse("{\"topic\":\"openhab/items/Light/statechanged\",\"payload\":\"{\\\"type\\\":\\\"OnOff\\\",\\\"value\\\":\\\"ON\\\",\\\"oldType\\\":\\\"OnOff\\\",\\\"oldValue\\\":\\\"OFF\\\"}\",\"type\":\"ItemStateChangedEvent\"}"));
+        assertEquals(OpenhabEventParser.EventType.STATE_CHANGED, mParser.getType());
+        assertEquals("Light", mParser.getName());
+        assertEquals("ON", mParser.getValue());
+
+        assertTrue(mParser.parse("{\"topic\":\"smarthome/items/Group/Member/statechanged\",\"payload\":\"{\\\"type\\\":\\\"Decimal\\\",\\\"value\\\":\\\"21.5\\\"}\",\"type\":\"GroupItemStateChangedEvent\"}"));
+        assertEquals(OpenhabEventParser.EventType.STATE_CHANGED, mParser.getType());
+        assertEquals("Group", mParser.getName());
+        assertEquals("21.5", mParser.getValue());
+
+        // type before topic and payload, whitespace between tokens
+        assertTrue(mParser.parse(" { \"type\" : \"ItemCommandEvent\" , \"topic\" : \"openhab/items/Cmd/command\" , \"payload\" : \"{ \\\"value\\\" : \\\"RELOAD\\\" }\" } "));
+        assertEquals(OpenhabEventParser.EventType.COMMAND, mParser.getType());
+        assertEquals("Cmd", mParser.getName());
+        assertEquals("RELOAD", mParser.getValue());
+    }
+
+    @Test
+    public void testEscapedValues() {
+        // quotes and backslashes are escaped twice, once in the payload and once in the event
+        assertTrue(mParser.parse("{\"topic\":\"openhab/items/Text/statechanged\",\"payload\":\"{\\\"type\\\":\\\"String\\\",\\\"value\\\":\\\"say \\\\\\\"hi\\\\\\\" \\\\\\\\ \\\\u00e4\\\\n\\\"}\",\"type\":\"ItemStateChangedEvent\"}"));
+        assertEquals("Text", mParser.getName());
+        assertEquals("say \"hi\" \\ \u00e4\n", mParser.getValue());
+
+        // Gson escapes = in html safe mode
+        assertTrue(mParser.parse("{\"topic\":\"openhab\\/items\\/Text\\/statechanged\",\"payload\":\"{\\\"value\\\":\\\"a\\u003db\\\"}\",\"type\":\"ItemStateChangedEvent\"}"));
+        assertEquals("Text", mParser.getName());
+        assertEquals("a=b", mParser.getValue());
+    }
+
+    @Test
+    public void testNonStringValue() {
+        assertTrue(mParser.parse("{\"topic\":\"openhab/items/Number/statechanged\",\"payload\":\"{\\\"value\\\":42.5,\\\"nested\\\":{\\\"a\\\":[1,\\\"}\\\"]}}\",\"type\":\"ItemStateChangedEvent\"}"));
+        assertEquals("42.5", mParser.getValue());
+
+        assertTrue(mParser.parse("{\"topic\":\"openhab/items/Number/statechanged\",\"payload\":\"{\\\"nested\\\":{\\\"value\\\":1},\\\"value\\\":null}\",\"type\":\"ItemStateChangedEvent\"}"));
+        assertEquals("null", mParser.getValue());
+    }
+
+    @Test
+    public void testOtherEvents() {
+        assertTrue(mParser.parse("{\"topic\":\"openhab/things/zwave:device:1/status\",\"payload\":\"{\\\"status\\\":\\\"ONLINE\\\"}\",\"type\":\"ThingStatusInfoEvent\"}"));
+        assertEquals(OpenhabEventParser.EventType.OTHER, mParser.getType());
+        assertNull(mParser.getName());
+        assertNull(mParser.getValue());
+
+        assertTrue(mParser.parse("{}"));
+        assertEquals(OpenhabEventParser.EventType.OTHER, mParser.getType());
+    }
+
+    @Test
+    public void testMalformedEvents() {
+        String[] events = {
+                "",
+                "[]",
+                "{\"topic\":\"openhab/items/Light/statechanged\"",
+                "{\"topic\" \"openhab/items/Light/statechanged\"}",
+                "{\"topic\":\"openhab/items/Light/statechanged\",}",
+                // missing payload, value or item name
+                "{\"topic\":\"openhab/items/Light/statechanged\",\"type\":\"ItemStateChangedEvent\"}",
+                "{\"topic\":\"openhab/items/Light/statechanged\",\"payload\":\"{\\\"type\\\":\\\"OnOff\\\"}\",\"type\":\"ItemStateChangedEvent\"}",
+                "{\"topic\":\"openhab/items\",\"payload\":\"{\\\"value\\\":\\\"ON\\\"}\",\"type\":\"ItemStateChangedEvent\"}",
+                "{\"topic\":\"openhab/items/Light/statechanged\",\"payload\":\"{\\\"value\\\":\\\"\\\\x\\\"}\",\"type\":\"ItemStateChangedEvent\"}",
+        };
+
+        for (String event : events) {
+            assertFalse(event, mParser.parse(event));
+        }
+
+        // the parser can be used again after an error
+        assertTrue(mParser.parse("{\"topic\":\"openhab/items/Light/statechanged\",\"payload\":\"{\\\"value\\\":\\\"OFF\\\"}\",\"type\":\"ItemStateChangedEvent\"}"));
+        assertEquals("OFF", mParser.getValue());
+    }
+}
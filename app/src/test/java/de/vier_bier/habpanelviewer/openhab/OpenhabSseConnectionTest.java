@@ -2,7 +2,12 @@ package de.vier_bier.habpanelviewer.openhab;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class OpenhabSseConnectionTest {
     @Test
@@ -21,4 +26,47 @@ public class OpenhabSseConnectionTest {
         c.setItemNames("cmdName");
         assertEquals("URL/rest/events?topics=smarthome/items/cmdName/command", c.buildUrl());
     }
+
+    @Test
+    public void testWildcard() {
+        OpenhabSseConnection c = new OpenhabSseConnection();
+        c.setServerUrl("URL");
+        c.setWildcard(true);
+        assertEquals("URL/rest/events?topics=openhab/items/*/statechanged", c.buildUrl());
+
+        assertTrue(c.setItemNames("cmdName", "item1"));
+        assertEquals("URL/rest/events?topics=openhab/items/*/statechanged,openhab/items/*/command", c.buildUrl());
+
+        // changed items do not change the topic
+        assertFalse(c.setItemNames("cmdName", "item1", "item2"));
+        assertFalse(c.setItemNames("otherCmdName"));
+
+        c.setWildcard(false);
+        assertEquals("URL/rest/events?topics=openhab/items/otherCmdName/command", c.buildUrl());
+    }
+
+    @Test
+    public void testEventsAreFiltered() throws InterruptedException {
+        OpenhabSseConnection c = new OpenhabSseConnection();
+        c.setWildcard(true);
+        c.setItemNames("cmdName", "item1");
+
+        final List<String> updates = new ArrayList<>();
+        c.addItemValueListener((name, value) -> updates.add(name + "=" + value));
+
+        c.data(event("item1", "statechanged", "ON", "ItemStateChangedEvent"));
+        c.data(event("item2", "statechanged", "ON", "ItemStateChangedEvent"));
+        c.data(event("cmdName", "command", "RELOAD", "ItemCommandEvent"));
+        // commands are only of interest for the command item
+        c.data(event("item1", "command", "OFF", "ItemCommandEvent"));
+        c.data(event("cmdName", "statechanged", "NULL", "ItemStateChangedEvent"));
+
+        assertTrue(c.getDispatcher().awaitIdle(1000));
+        assertEquals("[item1=ON, cmdName=RELOAD]", updates.toString());
+    }
+
+    private static String event(String item, String topicType, String value, String type) {
+        return "{\"topic\":\"openhab/items/" + item + "/" + topicType + "\",\"payload\":\"{\\\"value\\\":\\\""
+                + value + "\\\"}\",\"type\":\"" + type + "\"}";
+    }
 }
@@ -0,0 +1,96 @@
+package de.vier_bier.habpanelviewer.openhab;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OutboxTest {
+    @Test
+    public void testLastStateIsKept() throws IOException {
+        Outbox outbox = new Outbox(createFile());
+        outbox.put("A", "1");
+        outbox.put("B", "1");
+        outbox.put("A", "2");
+
+        assertEquals(Arrays.asList("B", "A"), outbox.getItems());
+        assertEquals("2", outbox.get("A"));
+
+        // an outdated state does not remove a newer one
+        outbox.delivered("A", "1");
+        assertEquals("2", outbox.get("A"));
+        outbox.delivered("A", "2");
+        assertNull(outbox.get("A"));
+
+        outbox.replace("A", "3");
+        assertNull(outbox.get("A"));
+        outbox.replace("B", "3");
+        assertEquals("3", outbox.get("B"));
+    }
+
+    @Test
+    public void testStatesAreReloaded() throws IOException {
+        File file = createFile();
+
+        Outbox outbox = new Outbox(file);
+        outbox.put("A", "1");
+        outbox.put("B", "K\u00fcche");
+        outbox.put("C", "");
+        outbox.delivered("A", "1");
+        outbox.close();
+
+        outbox = new Outbox(file);
+        assertEquals(Arrays.asList("B", "C"), outbox.getItems());
+        assertEquals("K\u00fcche", outbox.get("B"));
+        assertEquals("", outbox.get("C"));
+    }
+
+    @Test
+    public void testPartialRecordIsIgnored() throws IOException {
+        File file = createFile();
+
+        Outbox outbox = new Outbox(file);
+        outbox.put("A", "1");
+        outbox.close();
+
+        // record cut off in the middle of the state
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(new byte[]{0, 0, 0, 1, 'B', 0, 0, 0, 5, 'x'});
+        }
+
+        outbox = new Outbox(file);
+        assertEquals(Arrays.asList("A"), outbox.getItems());
+
+        // the partial record has been dropped, new records can be read again
+        outbox.put("C", "1");
+        outbox.close();
+        assertEquals(Arrays.asList("A", "C"), new Outbox(file).getItems());
+    }
+
+    @Test
+    public void testFileIsCompacted() throws IOException {
+        File file = createFile();
+
+        Outbox outbox = new Outbox(file);
+        for (int i = 0; i < 1000; i++) {
+            outbox.put("A", String.valueOf(i));
+        }
+        outbox.close();
+
+        assertTrue("file has not been compacted: " + file.length(), file.length() < 2000);
+        assertEquals("999", new Outbox(file).get("A"));
+    }
+
+    private File createFile() throws IOException {
+        File file = File.createTempFile("outbox", null);
+        assertTrue(file.delete());
+        file.deleteOnExit();
+        return file;
+    }
+}
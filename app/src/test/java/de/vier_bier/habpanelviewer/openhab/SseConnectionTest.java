@@ -20,6 +20,7 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 import org.webbitserver.EventSourceConnection;
 import org.webbitserver.EventSourceHandler;
+import org.webbitserver.EventSourceMessage;
 import org.webbitserver.WebServer;
 import org.webbitserver.WebServers;
 import org.webbitserver.handler.authentication.BasicAuthenticationHandler;
@@ -40,6 +41,8 @@ import static de.vier_bier.habpanelviewer.openhab.SseConnection.Status.FAILURE;
 import static de.vier_bier.habpanelviewer.openhab.SseConnection.Status.NOT_CONNECTED;
 import static de.vier_bier.habpanelviewer.openhab.SseConnection.Status.UNAUTHORIZED;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 public class SseConnectionTest {
@@ -49,6 +52,8 @@ public class SseConnectionTest {
 
     private final String[] mCreds = new String[2];
     private final AtomicBoolean mCertValid = new AtomicBoolean();
+    // the idle check posted last, run by the test instead of a looper
+    private final AtomicReference<Runnable> mWatchdog = new AtomicReference<>();
 
     @After
     public void destroyLooper() {
@@ -95,6 +100,11 @@ public class SseConnectionTest {
                 // this is a somewhat ugly workaround because we have no looper in the unit test
                 r.run();
             }
+
+            @Override
+            void postWatchdog(Runnable r, long delay) {
+                mWatchdog.set(r);
+            }
         };
     }
 
@@ -171,6 +181,50 @@ public class SseConnectionTest {
         runAndWait(() -> mWebServer.add("/rest/events", new EmptyEventSourceHandler()).start().get(), CONNECTED, 600);
     }
 
+    @Test
+    public void testWatchdogWaitsForKeepAlive() throws InterruptedException, ExecutionException {
+        mWebServer.add("/rest/events", new EmptyEventSourceHandler()).start().get();
+        mSseConnection.setIdleTimeout(100);
+        mSseConnection.connected();
+        runAndWait(() -> mSseConnection.setServerUrl("http://localhost:8080"), CONNECTED);
+
+        // without keep alive events a quiet connection is not considered dead
+        Thread.sleep(200);
+        Runnable watchdog = mWatchdog.getAndSet(null);
+        assertNotNull(watchdog);
+        watchdog.run();
+        assertEquals(CONNECTED, mSseConnection.getStatus());
+        assertNotNull(mWatchdog.get());
+    }
+
+    @Test
+    public void testWatchdogReconnectsWhenIdle() throws InterruptedException, ExecutionException {
+        mWebServer.add("/rest/events", new KeepAliveEventSourceHandler()).start().get();
+        mSseConnection.setIdleTimeout(100);
+        mSseConnection.connected();
+
+        CountDownLatch aliveLatch = new CountDownLatch(1);
+        mSseConnection.addListener((SseConnection.ISseDataListener) data -> aliveLatch.countDown());
+        runAndWait(() -> mSseConnection.setServerUrl("http://localhost:8080"), CONNECTED);
+        assertTrue(aliveLatch.await(5, TimeUnit.SECONDS));
+
+        // no data after the keep alive event
+        Thread.sleep(200);
+        Runnable watchdog = mWatchdog.get();
+        assertNotNull(watchdog);
+        runAndWait(watchdog::run, SseConnection.Status.CONNECTING);
+    }
+
+    @Test
+    public void testZeroIdleTimeoutDisablesWatchdog() throws InterruptedException, ExecutionException {
+        mWebServer.add("/rest/events", new KeepAliveEventSourceHandler()).start().get();
+        mSseConnection.setIdleTimeout(0);
+        mSseConnection.connected();
+
+        runAndWait(() -> mSseConnection.setServerUrl("http://localhost:8080"), CONNECTED);
+        assertNull(mWatchdog.get());
+    }
+
     private void runAndWait(ExceptionRaisingRunnable r, SseConnection.Status status) throws InterruptedException {
         runAndWait(r, status, 5);
     }
@@ -205,6 +259,15 @@ public class SseConnectionTest {
         void run() throws Exception;
     }
 
+    // sends a single keep alive event when the connection is opened
+    static class KeepAliveEventSourceHandler extends EmptyEventSourceHandler {
+        @Override
+        public synchronized void onOpen(EventSourceConnection connection) {
+            super.onOpen(connection);
+            connection.send(new EventSourceMessage("{\"type\":\"ALIVE\"}").event("message"));
+        }
+    }
+
     static class EmptyEventSourceHandler implements EventSourceHandler {
         EventSourceConnection mConnection;
 
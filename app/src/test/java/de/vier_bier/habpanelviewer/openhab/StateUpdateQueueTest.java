@@ -0,0 +1,77 @@
+package de.vier_bier.habpanelviewer.openhab;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class StateUpdateQueueTest {
+    private static final String URL = "http://localhost:8080";
+
+    private final StateUpdateQueue mQueue = new StateUpdateQueue(2);
+
+    @Test
+    public void testBurstIsMerged() {
+        for (int i = 0; i < 50; i++) {
+            offer("Brightness", String.valueOf(i));
+        }
+
+        RestClient.ItemModification update = mQueue.poll();
+        assertEquals("Brightness", update.mItemName);
+        assertEquals("49", update.mItemState);
+        assertNull(mQueue.poll());
+        assertEquals(49, mQueue.getMergedCount());
+
+        mQueue.completed("Brightness", true);
+        assertNull(mQueue.poll());
+        assertEquals(1, mQueue.getSentCount());
+    }
+
+    @Test
+    public void testItemOrder() {
+        offer("A", "1");
+        offer("B", "1");
+        offer("A", "2");
+
+        // an updated item keeps its position
+        assertEquals("A", mQueue.poll().mItemName);
+        assertEquals("B", mQueue.poll().mItemName);
+    }
+
+    @Test
+    public void testUpdatesOfItemInFlightWait() {
+        offer("A", "1");
+        assertEquals("1", mQueue.poll().mItemState);
+
+        offer("A", "2");
+        offer("B", "1");
+        assertEquals("B", mQueue.poll().mItemName);
+
+        mQueue.completed("B", true);
+        assertNull(mQueue.poll());
+
+        mQueue.completed("A", false);
+        assertEquals("2", mQueue.poll().mItemState);
+        assertEquals(1, mQueue.getFailedCount());
+    }
+
+    @Test
+    public void testInFlightWindow() {
+        offer("A", "1");
+        offer("B", "1");
+        offer("C", "1");
+
+        assertEquals("A", mQueue.poll().mItemName);
+        assertEquals("B", mQueue.poll().mItemName);
+        assertNull(mQueue.poll());
+        assertEquals(1, mQueue.getPendingCount());
+
+        mQueue.completed("A", true);
+        assertEquals("C", mQueue.poll().mItemName);
+        assertEquals(0, mQueue.getPendingCount());
+    }
+
+    private void offer(String item, String state) {
+        mQueue.offer(new RestClient.ItemModification(URL, new ItemState(item, state)));
+    }
+}
@@ -0,0 +1,174 @@
+package de.vier_bier.habpanelviewer.openhab.average;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AveragePropagatorTest {
+    private final List<String> mUpdates = new ArrayList<>();
+    // System.nanoTime() of every update
+    private final List<Long> mUpdateTimes = new ArrayList<>();
+    private final AveragePropagator mPropagator = new AveragePropagator((item, state) -> {
+        synchronized (mUpdates) {
+            mUpdates.add(item + "=" + state);
+            mUpdateTimes.add(System.nanoTime());
+            mUpdates.notifyAll();
+        }
+    });
+
+    @After
+    public void tearDown() {
+        mPropagator.terminate();
+    }
+
+    @Test
+    public void testFirstBatchIsPropagated() {
+        final long now = AveragePropagator.now();
+        float[] states = {1f, 2f, 6f};
+        long[] times = {now - 2000, now - 1000, now};
+
+        assertTrue(mPropagator.addStatesToAverage("Light", states, times, 3, 60, Aggregator.MEAN));
+        assertEquals("[Light=3.0]", updates());
+
+        // later batches are propagated once per interval
+        assertFalse(mPropagator.addStatesToAverage("Light", states, times, 3, 60, Aggregator.MEAN));
+        assertEquals("[Light=3.0]", updates());
+
+        // the average starts over after it has been removed
+        mPropagator.removeFromAverage("Light");
+        assertTrue(mPropagator.addStatesToAverage("Light", states, times, 2, 60, Aggregator.COUNT));
+        assertEquals("[Light=3.0, Light=2]", updates());
+    }
+
+    @Test
+    public void testOutdatedFirstBatchIsNotPropagated() {
+        final long now = AveragePropagator.now();
+
+        // delivered late from a sensor FIFO, older than the interval
+        assertTrue(mPropagator.addStatesToAverage("Light", new float[]{5f}, new long[]{now - 120000}, 1, 60, Aggregator.LAST));
+        assertEquals("[]", updates());
+    }
+
+    @Test
+    public void testEmptyBatchIsIgnored() {
+        assertFalse(mPropagator.addStatesToAverage("Light", new float[0], new long[0], 0, 60, Aggregator.MEAN));
+        assertFalse(mPropagator.addStatesToAverage("", new float[]{1f}, new long[]{AveragePropagator.now()}, 1, 60, Aggregator.MEAN));
+        assertEquals("[]", updates());
+    }
+
+    @Test
+    public void testTimedStateFiresOnTime() throws InterruptedException {
+        final long start = System.nanoTime();
+        mPropagator.setStateIn("Door", "CLOSED", 1);
+
+        assertTrue(awaitUpdates(1, 3000));
+        assertEquals("[Door=CLOSED]", updates());
+        final long elapsed = elapsedMillis(start);
+        assertTrue("fired after " + elapsed + " ms", elapsed >= 1000 && elapsed < 1100);
+    }
+
+    @Test
+    public void testResetPostponesTimedState() throws InterruptedException {
+        mPropagator.setStateIn("Door", "CLOSED", 1);
+        Thread.sleep(500);
+
+        final long reset = System.nanoTime();
+        mPropagator.setStateIn("Door", "CLOSED", 1);
+
+        assertTrue(awaitUpdates(1, 3000));
+        assertEquals("[Door=CLOSED]", updates());
+        final long elapsed = elapsedMillis(reset);
+        assertTrue("fired " + elapsed + " ms after the reset", elapsed >= 1000 && elapsed < 1100);
+    }
+
+    @Test
+    public void testNewStateReplacesPendingState() throws InterruptedException {
+        mPropagator.setStateIn("Door", "CLOSED", 1);
+        mPropagator.setStateIn("Door", "OPEN", 1);
+
+        assertTrue(awaitUpdates(1, 3000));
+        Thread.sleep(200);
+        assertEquals("[Door=OPEN]", updates());
+    }
+
+    @Test
+    public void testResetWhileExpiring() throws InterruptedException {
+        final CountDownLatch expiring = new CountDownLatch(1);
+        final CountDownLatch reset = new CountDownLatch(1);
+        final TimerWheel timer = mPropagator.getTimer();
+
+        mPropagator.setStateIn("Door", "CLOSED", 1);
+        // keeps the timer busy past the deadline of the state, so the state expires together
+        // with the second task, which runs first and resets the state
+        timer.schedule(new TimerWheel.Timeout(() -> sleep(1100)), 100);
+        timer.schedule(new TimerWheel.Timeout(() -> {
+            expiring.countDown();
+            await(reset);
+        }), 200);
+
+        assertTrue(expiring.await(3, TimeUnit.SECONDS));
+        final long resetTime = System.nanoTime();
+        mPropagator.setStateIn("Door", "CLOSED", 1);
+        reset.countDown();
+
+        // the expired timeout has been rescheduled and does not fire now
+        Thread.sleep(500);
+        assertEquals("[]", updates());
+
+        assertTrue(awaitUpdates(1, 3000));
+        Thread.sleep(200);
+        assertEquals("[Door=CLOSED]", updates());
+        assertTrue(elapsedMillis(resetTime) >= 1000);
+    }
+
+    private boolean awaitUpdates(int count, long timeoutMillis) throws InterruptedException {
+        final long end = System.currentTimeMillis() + timeoutMillis;
+        synchronized (mUpdates) {
+            while (mUpdates.size() < count) {
+                long remaining = end - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                mUpdates.wait(remaining);
+            }
+        }
+        return true;
+    }
+
+    // time from the given System.nanoTime() to the first update
+    private long elapsedMillis(long startNanos) {
+        synchronized (mUpdates) {
+            return (mUpdateTimes.get(0) - startNanos) / 1000000;
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(3, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private String updates() {
+        synchronized (mUpdates) {
+            return mUpdates.toString();
+        }
+    }
+}
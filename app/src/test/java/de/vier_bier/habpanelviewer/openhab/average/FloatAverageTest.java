@@ -0,0 +1,138 @@
+package de.vier_bier.habpanelviewer.openhab.average;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FloatAverageTest {
+    private static final long START = 1600000000000L;
+
+    @Test
+    public void testAverage() {
+        FloatAverage avg = new FloatAverage("Light", 10);
+        assertNull(avg.getValue(START));
+
+        avg.add(1f, START);
+        avg.add(2f, START + 1000);
+        avg.add(6f, START + 2000);
+        assertEquals("3.0", avg.getValue(START + 2000));
+    }
+
+    @Test
+    public void testOldSamplesExpire() {
+        FloatAverage avg = new FloatAverage("Light", 10);
+        avg.add(10f, START);
+        avg.add(2f, START + 6000);
+
+        assertEquals("6.0", avg.getValue(START + 9000));
+        assertEquals("2.0", avg.getValue(START + 11000));
+        assertNull(avg.getValue(START + 17000));
+
+        // after a long pause
+        avg.add(4f, START + 100000);
+        assertEquals("4.0", avg.getValue(START + 100000));
+    }
+
+    @Test
+    public void testManySamples() {
+        FloatAverage avg = new FloatAverage("Light", 1);
+
+        // sensor delivering a sample every 200 microseconds for 5 seconds
+        for (int i = 0; i < 25000; i++) {
+            avg.add(i < 15000 ? 100f : 50f, START + i / 5);
+        }
+        assertEquals("50.0", avg.getValue(START + 5000));
+    }
+
+    @Test
+    public void testIntervalChange() {
+        FloatAverage avg = new FloatAverage("Light", 10);
+        avg.add(10f, START);
+        avg.add(2f, START + 6000);
+
+        // samples are kept when the interval changes
+        avg.setInterval(20);
+        assertEquals("6.0", avg.getValue(START + 15000));
+
+        avg.setInterval(5);
+        assertEquals("2.0", avg.getValue(START + 8000));
+    }
+
+    @Test
+    public void testAggregators() {
+        FloatAverage avg = new FloatAverage("Light", 10);
+        float[] values = {5, 1, 4, 2, 3, 100, 2, 4, 3, 1};
+        for (int i = 0; i < values.length; i++) {
+            avg.add(values[i], START + i * 500);
+        }
+
+        assertEquals("12.5", value(avg, Aggregator.MEAN));
+        assertEquals("1.0", value(avg, Aggregator.MIN));
+        assertEquals("100.0", value(avg, Aggregator.MAX));
+        assertEquals("1.0", value(avg, Aggregator.LAST));
+        assertEquals("10", value(avg, Aggregator.COUNT));
+        assertEquals("3.0", value(avg, Aggregator.P50));
+        assertEquals("100.0", value(avg, Aggregator.P95));
+
+        // expired samples are not aggregated
+        avg.setAggregator(Aggregator.MAX);
+        assertEquals("4.0", avg.getValue(START + 13000));
+    }
+
+    @Test
+    public void testPercentilesOfFastChangingValues() {
+        FloatAverage avg = new FloatAverage("Light", 1);
+
+        // every bucket holds values from 0 to 99, so all bucket means are 49.5
+        for (int i = 0; i < 20000; i++) {
+            avg.add(i % 100, START + i / 5);
+        }
+
+        // the percentiles are taken from about 500 randomly sampled values
+        avg.setAggregator(Aggregator.P50);
+        float p50 = Float.parseFloat(avg.getValue(START + 4000));
+        assertTrue("median " + p50, p50 >= 40 && p50 <= 60);
+        avg.setAggregator(Aggregator.P95);
+        float p95 = Float.parseFloat(avg.getValue(START + 4000));
+        assertTrue("95th percentile " + p95, p95 >= 90 && p95 <= 99);
+
+        // the sampled values are kept when the buckets are merged
+        avg.setInterval(2);
+        p95 = Float.parseFloat(avg.getValue(START + 4000));
+        assertTrue("95th percentile " + p95, p95 >= 90 && p95 <= 99);
+    }
+
+    @Test
+    public void testEwma() {
+        FloatAverage avg = new FloatAverage("Light", 10);
+        avg.setAggregator(Aggregator.EWMA);
+
+        avg.add(0f, START);
+        avg.add(100f, START + 10000);
+
+        // moved 1 - 1/e towards the new value after one interval
+        assertEquals("63.212055", avg.getValue(START + 10000));
+    }
+
+    @Test
+    public void testBatch() {
+        FloatAverage avg = new FloatAverage("Light", 10);
+        avg.add(1f, START + 20000);
+
+        // delivered late from a sensor FIFO, the first one is older than the interval
+        float[] values = {100f, 2f, 3f};
+        long[] times = {START + 5000, START + 15000, START + 19000};
+        avg.addAll(values, times, 3);
+
+        assertEquals("2.0", avg.getValue(START + 20000));
+        avg.setAggregator(Aggregator.LAST);
+        assertEquals("1.0", avg.getValue(START + 20000));
+    }
+
+    private String value(FloatAverage avg, Aggregator a) {
+        avg.setAggregator(a);
+        return avg.getValue(START + 5000);
+    }
+}
@@ -0,0 +1,85 @@
+package de.vier_bier.habpanelviewer.openhab.average;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TimerWheelTest {
+    private final TimerWheel mTimer = new TimerWheel("test");
+    private final List<String> mFired = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        mTimer.terminate();
+    }
+
+    @Test
+    public void testTimeoutsFireInOrder() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(3);
+        mTimer.start();
+
+        // C and B usually share a wheel bucket
+        mTimer.schedule(timeout("C", done), 1000);
+        mTimer.schedule(timeout("A", done), 50);
+        mTimer.schedule(timeout("B", done), 488);
+
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertEquals("[A, B, C]", mFired.toString());
+        assertEquals(0, mTimer.size());
+        assertEquals(3, mTimer.getFiredCount());
+    }
+
+    @Test
+    public void testRescheduleAndCancel() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        mTimer.start();
+
+        TimerWheel.Timeout a = timeout("A", done);
+        TimerWheel.Timeout b = timeout("B", done);
+        mTimer.schedule(a, 50);
+        mTimer.schedule(b, 100);
+
+        // A is moved behind B, B is cancelled
+        mTimer.schedule(a, 200);
+        assertTrue(mTimer.cancel(b));
+        assertFalse(mTimer.cancel(b));
+        assertEquals(1, mTimer.size());
+
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertEquals("[A]", mFired.toString());
+        assertFalse(mTimer.isScheduled(a));
+    }
+
+    @Test
+    public void testLagIsRecorded() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(10);
+
+        // the timer is started after the deadlines passed
+        for (int i = 0; i < 10; i++) {
+            mTimer.schedule(timeout("T" + i, done), 0);
+        }
+        Thread.sleep(100);
+        mTimer.start();
+
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertTrue(mTimer.getLagPercentile(50) >= 99);
+        assertTrue(mTimer.getMaxLag() >= mTimer.getLagPercentile(99));
+    }
+
+    private TimerWheel.Timeout timeout(String name, CountDownLatch done) {
+        return new TimerWheel.Timeout(() -> {
+            synchronized (mFired) {
+                mFired.add(name);
+            }
+            done.countDown();
+        });
+    }
+}
@@ -0,0 +1,114 @@
+package de.vier_bier.habpanelviewer.reporting;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DeadbandTest {
+    private final Deadband mDeadband = new Deadband();
+
+    @Test
+    public void testEveryChangeIsReportedByDefault() {
+        assertTrue(mDeadband.offer(1000f, 0));
+        assertFalse(mDeadband.offer(1000f, 10));
+        assertTrue(mDeadband.offer(1000.001f, 20));
+        assertEquals(-1, mDeadband.getNextCheck(20));
+    }
+
+    @Test
+    public void testAbsoluteDeadband() {
+        mDeadband.configure(0.5f, 0, 0, 0);
+
+        assertTrue(mDeadband.offer(1000f, 0));
+        assertFalse(mDeadband.offer(1000.3f, 10));
+        assertFalse(mDeadband.offer(999.6f, 20));
+        assertTrue(mDeadband.offer(1000.6f, 30));
+        assertEquals(2, mDeadband.getSuppressedCount());
+    }
+
+    @Test
+    public void testRelativeDeadband() {
+        mDeadband.configure(0, 10, 0, 0);
+
+        assertTrue(mDeadband.offer(100f, 0));
+        assertFalse(mDeadband.offer(109f, 10));
+        assertTrue(mDeadband.offer(89f, 20));
+    }
+
+    @Test
+    public void testRelativeDeadbandAtZero() {
+        mDeadband.configure(0, 10, 0, 0);
+
+        assertTrue(mDeadband.offer(0f, 0));
+        for (int i = 1; i <= 100; i++) {
+            assertFalse(mDeadband.offer(0f, i));
+        }
+        assertTrue(mDeadband.offer(0.1f, 200));
+    }
+
+    @Test
+    public void testMinimumInterval() {
+        mDeadband.configure(1, 0, 1000, 0);
+
+        assertTrue(mDeadband.offer(10f, 0));
+        assertFalse(mDeadband.offer(20f, 100));
+        assertEquals(900, mDeadband.getNextCheck(100));
+
+        // the held back value is reported when the interval has elapsed
+        assertFalse(mDeadband.check(999));
+        assertTrue(mDeadband.check(1000));
+        assertFalse(mDeadband.isHeartbeat());
+        assertEquals(20f, mDeadband.getValue(), 0);
+        assertEquals(-1, mDeadband.getNextCheck(1000));
+
+        // a change that returns into the deadband is not reported
+        assertFalse(mDeadband.offer(30f, 1100));
+        assertFalse(mDeadband.offer(20.5f, 1200));
+        assertFalse(mDeadband.check(2000));
+    }
+
+    @Test
+    public void testMaximumInterval() {
+        mDeadband.configure(1, 0, 0, 5000);
+
+        assertTrue(mDeadband.offer(10f, 0));
+        assertFalse(mDeadband.offer(10.5f, 1000));
+        assertEquals(4000, mDeadband.getNextCheck(1000));
+
+        assertTrue(mDeadband.check(5000));
+        assertTrue(mDeadband.isHeartbeat());
+        assertEquals(10.5f, mDeadband.getValue(), 0);
+        assertTrue(mDeadband.offer(10.5f, 10000));
+    }
+
+    @Test
+    public void testBatchReportsLastValue() {
+        mDeadband.configure(1, 0, 1000, 0);
+
+        assertTrue(mDeadband.offerAll(new float[]{10f, 30f, 20f}, 3, 0));
+        assertEquals(20f, mDeadband.getValue(), 0);
+        assertEquals(2, mDeadband.getSuppressedCount());
+
+        // the batch arrives before the minimum interval elapsed, its last value is held back
+        assertFalse(mDeadband.offerAll(new float[]{40f, 25f}, 2, 500));
+        assertTrue(mDeadband.check(1000));
+        assertEquals(25f, mDeadband.getValue(), 0);
+
+        // the intermediate values of a batch are not compared, only the current value
+        assertFalse(mDeadband.offerAll(new float[]{50f, 25.5f}, 2, 3000));
+        assertEquals(-1, mDeadband.getNextCheck(3000));
+    }
+
+    @Test
+    public void testConfigureReportsChanges() {
+        assertFalse(mDeadband.configure(0, 0, 0, 0));
+        assertTrue(mDeadband.configure(0.5f, 0, 0, 0));
+        assertFalse(mDeadband.configure(0.5f, 0, 0, 0));
+        assertTrue(mDeadband.configure(0.5f, 10, 0, 0));
+        assertTrue(mDeadband.configure(0.5f, 10, 1000, 0));
+        assertTrue(mDeadband.configure(0.5f, 10, 1000, 60000));
+        assertFalse(mDeadband.configure(0.5f, 10, 1000, 60000));
+    }
+}
@@ -0,0 +1,432 @@
+package de.vier_bier.habpanelviewer.reporting.motion;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ComparerTest {
+    private static final int[][] RESOLUTIONS = {{640, 480}, {101, 77}, {20, 20}};
+    private static final int[] BOXES = {1, 7, 20, 50};
+
+    @Test
+    public void testAveragesMatchPixelWalk() {
+        Random r = new Random(4711);
+
+        for (int[] res : RESOLUTIONS) {
+            int w = res[0];
+            int h = res[1];
+
+            byte[] raw = randomFrame(r, w, h);
+            byte[] luma = ReferenceLuma.extract(raw, w, h);
+            LumaData extracted = ReferenceLuma.toLumaData(luma, w, h);
+            LumaData wrapped = new LumaReader(w, h, w, h).read(ByteBuffer.wrap(raw), w, 1);
+
+            for (int boxes : BOXES) {
+                if (boxes > w || boxes > h) {
+                    continue;
+                }
+
+                Comparer c = new Comparer(w, h, boxes, 20);
+                for (int y = 0; y < boxes; y++) {
+                    for (int x = 0; x < boxes; x++) {
+                        assertEquals(pixelWalkAverage(luma, w, h, boxes, x, y), c.calcAverage(extracted, x, y));
+                        assertEquals(pixelWalkAverage(raw, w, h, boxes, x, y), c.calcAverage(wrapped, x, y));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testIsDifferentMatchesPixelWalk() {
+        Random r = new Random(815);
+
+        for (int[] res : RESOLUTIONS) {
+            int w = res[0];
+            int h = res[1];
+
+            byte[] frame1 = randomFrame(r, w, h);
+            byte[] frame2 = frame1.clone();
+            // move a bright block through the second frame
+            for (int y = h / 4; y < h / 2; y++) {
+                for (int x = w / 3; x < w / 2; x++) {
+                    frame2[y * w + x] = (byte) 250;
+                }
+            }
+
+            byte[] luma1 = ReferenceLuma.extract(frame1, w, h);
+            byte[] luma2 = ReferenceLuma.extract(frame2, w, h);
+            LumaData s1 = ReferenceLuma.toLumaData(luma1, w, h);
+            LumaData s2 = ReferenceLuma.toLumaData(luma2, w, h);
+
+            for (int boxes : BOXES) {
+                if (boxes > w || boxes > h) {
+                    continue;
+                }
+
+                for (int leniency : new int[]{0, 5, 20}) {
+                    Comparer c = new Comparer(w, h, boxes, leniency);
+
+                    int expectedCount = 0;
+                    for (int y = 0; y < boxes; y++) {
+                        for (int x = 0; x < boxes; x++) {
+                            int b1 = pixelWalkAverage(luma1, w, h, boxes, x, y);
+                            int b2 = pixelWalkAverage(luma2, w, h, boxes, x, y);
+                            boolean expected = Math.abs(b1 - b2) > leniency * 2.55f;
+
+                            assertEquals(expected, c.isDifferent(s1, s2, x, y));
+                            if (expected) {
+                                expectedCount++;
+                            }
+                        }
+                    }
+
+                    assertEquals(expectedCount, c.isDifferent(s1, s2).getCount());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testIsDarkerMatchesPixelWalk() {
+        Random r = new Random(42);
+
+        for (int[] res : RESOLUTIONS) {
+            int w = res[0];
+            int h = res[1];
+
+            byte[] frame = randomFrame(r, w, h);
+            byte[] black = new byte[w * h];
+
+            for (byte[] f : new byte[][]{frame, black}) {
+                byte[] luma = ReferenceLuma.extract(f, w, h);
+                LumaData extracted = ReferenceLuma.toLumaData(luma, w, h);
+                LumaData wrapped = new LumaReader(w, h, w, h).read(ByteBuffer.wrap(f), w, 1);
+
+                for (int minLuma : new int[]{0, 1000, 100000, 10000000}) {
+                    assertEquals(pixelWalkDarker(luma, minLuma), extracted.isDarker(minLuma));
+                    assertEquals(pixelWalkDarker(f, minLuma), wrapped.isDarker(minLuma));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBackgroundModelWithoutAdaptionComparesToLastImage() {
+        Random r = new Random(7);
+        int w = 101;
+        int h = 77;
+
+        Comparer model = new Comparer(w, h, 7, 5, 1f, false, false);
+        Comparer c = new Comparer(w, h, 7, 5);
+
+        LumaData previous = ReferenceLuma.extractLuma(randomFrame(r, w, h), w, h);
+        assertNull(model.update(previous));
+        for (int i = 0; i < 5; i++) {
+            LumaData current = ReferenceLuma.extractLuma(randomFrame(r, w, h), w, h);
+            assertEquals(c.isDifferent(current, previous).getCount(), model.update(current).getCount());
+            previous = current;
+        }
+    }
+
+    @Test
+    public void testBackgroundModelDetectsSlowChange() {
+        int w = 40;
+        int h = 40;
+        Comparer lastImage = new Comparer(w, h, 2, 10, 1f, false, false);
+        Comparer background = new Comparer(w, h, 2, 10, 0.1f, false, false);
+
+        // the brightness increases by 10 every frame, that is below the threshold of 25.5
+        int lastImageCount = 0;
+        int backgroundCount = 0;
+        for (int i = 0; i < 10; i++) {
+            byte[] frame = new byte[w * h];
+            Arrays.fill(frame, (byte) (16 + 10 * i));
+
+            MotionBoxes d1 = lastImage.update(ReferenceLuma.extractLuma(frame, w, h));
+            MotionBoxes d2 = background.update(ReferenceLuma.extractLuma(frame, w, h));
+            lastImageCount += d1 == null ? 0 : d1.getCount();
+            backgroundCount += d2 == null ? 0 : d2.getCount();
+        }
+
+        assertEquals(0, lastImageCount);
+        assertTrue(backgroundCount > 0);
+    }
+
+    @Test
+    public void testBackgroundModelAroundMidBrightness() {
+        int w = 40;
+        int h = 40;
+        Comparer c = new Comparer(w, h, 2, 5, 0.2f, false, false);
+
+        // the brightness varies slightly around 128, the middle of the luma range
+        int count = 0;
+        for (int i = 0; i < 20; i++) {
+            byte[] frame = new byte[w * h];
+            Arrays.fill(frame, (byte) (16 + (i % 2 == 0 ? 126 : 130)));
+
+            MotionBoxes d = c.update(ReferenceLuma.extractLuma(frame, w, h));
+            count += d == null ? 0 : d.getCount();
+        }
+
+        assertEquals(0, count);
+    }
+
+    @Test
+    public void testNoiseAdaptionIgnoresFlickeringBoxes() {
+        int w = 40;
+        int h = 40;
+        Comparer plain = new Comparer(w, h, 2, 5, 0.2f, false, false);
+        Comparer adaptive = new Comparer(w, h, 2, 5, 0.2f, true, false);
+
+        int plainCount = 0;
+        int adaptiveCount = 0;
+        for (int i = 0; i < 100; i++) {
+            byte[] frame = new byte[w * h];
+            Arrays.fill(frame, (byte) (i % 2 == 0 ? 40 : 100));
+
+            MotionBoxes d1 = plain.update(ReferenceLuma.extractLuma(frame, w, h));
+            MotionBoxes d2 = adaptive.update(ReferenceLuma.extractLuma(frame, w, h));
+            // only count once the models have settled
+            if (i >= 50) {
+                plainCount += d1.getCount();
+                adaptiveCount += d2.getCount();
+            }
+        }
+
+        assertTrue(plainCount > 0);
+        assertEquals(0, adaptiveCount);
+    }
+
+    @Test
+    public void testIlluminationCompensation() {
+        int w = 80;
+        int h = 80;
+        Comparer plain = new Comparer(w, h, 4, 10, 1f, false, false);
+        Comparer compensating = new Comparer(w, h, 4, 10, 1f, false, true);
+
+        byte[] dark = new byte[w * h];
+        Arrays.fill(dark, (byte) 40);
+        byte[] bright = new byte[w * h];
+        Arrays.fill(bright, (byte) 100);
+        byte[] brightWithMotion = bright.clone();
+        for (int y = 0; y < 20; y++) {
+            Arrays.fill(brightWithMotion, y * w, y * w + 20, (byte) 10);
+        }
+
+        plain.update(ReferenceLuma.extractLuma(dark, w, h));
+        compensating.update(ReferenceLuma.extractLuma(dark, w, h));
+
+        assertEquals(16, plain.update(ReferenceLuma.extractLuma(bright, w, h)).getCount());
+        assertFalse(plain.isIlluminationChange());
+        assertEquals(0, compensating.update(ReferenceLuma.extractLuma(bright, w, h)).getCount());
+        assertTrue(compensating.isIlluminationChange());
+
+        // the model has taken over the new brightness, local motion is still detected
+        assertEquals(1, compensating.update(ReferenceLuma.extractLuma(brightWithMotion, w, h)).getCount());
+        assertFalse(compensating.isIlluminationChange());
+    }
+
+    @Test
+    public void testIlluminationCompensationOfBrightBoxes() {
+        int w = 80;
+        int h = 80;
+        Comparer c = new Comparer(w, h, 4, 10, 1f, false, true);
+
+        // the right half of the image is brighter than 128 after switching on the light
+        byte[] dark = new byte[w * h];
+        byte[] bright = new byte[w * h];
+        for (int y = 0; y < h; y++) {
+            Arrays.fill(dark, y * w, y * w + 40, (byte) 60);
+            Arrays.fill(dark, y * w + 40, y * w + 80, (byte) 110);
+            Arrays.fill(bright, y * w, y * w + 40, (byte) 100);
+            Arrays.fill(bright, y * w + 40, y * w + 80, (byte) 150);
+        }
+        byte[] brightWithMotion = bright.clone();
+        for (int y = 0; y < 20; y++) {
+            Arrays.fill(brightWithMotion, y * w + 60, y * w + 80, (byte) 230);
+        }
+
+        c.update(ReferenceLuma.extractLuma(dark, w, h));
+        assertEquals(0, c.update(ReferenceLuma.extractLuma(bright, w, h)).getCount());
+        assertTrue(c.isIlluminationChange());
+
+        assertEquals(1, c.update(ReferenceLuma.extractLuma(brightWithMotion, w, h)).getCount());
+        assertFalse(c.isIlluminationChange());
+    }
+
+    @Test
+    public void testMaskedBoxesAreIgnored() {
+        int w = 80;
+        int h = 80;
+        Comparer c = new Comparer(w, h, 4, 10, 1f, false, true);
+        // exclude the top left box
+        c.setMask(new MotionMask(4).toggle(0, 0));
+
+        byte[] background = new byte[w * h];
+        Arrays.fill(background, (byte) 60);
+        byte[] motion = background.clone();
+        for (int y = 0; y < 20; y++) {
+            Arrays.fill(motion, y * w, y * w + 40, (byte) 10);
+        }
+
+        c.update(ReferenceLuma.extractLuma(background, w, h));
+        // only the unmasked box next to the excluded one is reported
+        assertEquals(1, c.update(ReferenceLuma.extractLuma(motion, w, h)).getCount());
+        assertEquals(1, c.isDifferent(ReferenceLuma.extractLuma(background, w, h), ReferenceLuma.extractLuma(motion, w, h)).getCount());
+
+        // an empty mask evaluates all boxes again
+        c.setMask(new MotionMask(4));
+        assertEquals(2, c.isDifferent(ReferenceLuma.extractLuma(background, w, h), ReferenceLuma.extractLuma(motion, w, h)).getCount());
+    }
+
+    @Test
+    public void testMaskChangeKeepsBackgroundModel() {
+        int w = 80;
+        int h = 80;
+        Comparer c = new Comparer(w, h, 4, 10, 0.1f, false, false);
+        c.setMask(new MotionMask(4).toggle(0, 0));
+
+        byte[] background = new byte[w * h];
+        Arrays.fill(background, (byte) 60);
+        // the excluded box changed while it was not modeled
+        byte[] changed = background.clone();
+        for (int y = 0; y < 20; y++) {
+            Arrays.fill(changed, y * w, y * w + 20, (byte) 120);
+        }
+        byte[] motion = changed.clone();
+        for (int y = 60; y < 80; y++) {
+            Arrays.fill(motion, y * w + 60, y * w + 80, (byte) 10);
+        }
+
+        c.update(ReferenceLuma.extractLuma(background, w, h));
+        c.update(ReferenceLuma.extractLuma(changed, w, h));
+
+        // the included box starts over instead of being compared to an outdated model
+        c.setMask(new MotionMask(4));
+        assertEquals(0, c.update(ReferenceLuma.extractLuma(changed, w, h)).getCount());
+        assertEquals(0, c.update(ReferenceLuma.extractLuma(changed, w, h)).getCount());
+
+        // the model of the other boxes has been kept
+        assertEquals(1, c.update(ReferenceLuma.extractLuma(motion, w, h)).getCount());
+    }
+
+    @Test
+    public void testSteadyStateDoesNotAllocate() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            // allocation counting is not supported by this JVM
+            return;
+        }
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+
+        Random r = new Random(1);
+        int w = 160;
+        int h = 120;
+        LumaData[] frames = new LumaData[8];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = ReferenceLuma.extractLuma(randomFrame(r, w, h), w, h);
+        }
+
+        // the reporter hands the boxes to the listener, which draws them like the visualizer
+        final Canvas canvas = new Canvas();
+        final Paint paint = new Paint();
+        final int[] drawn = new int[1];
+        MotionReporter reporter = new MotionReporter(new IMotionListener.MotionAdapter() {
+            @Override
+            public void motionDetected(MotionBoxes differing) {
+                MotionVisualizer.drawBoxes(canvas, differing, 90, paint);
+                drawn[0]++;
+            }
+        }, (item, state) -> {
+        });
+
+        for (int boxes : BOXES) {
+            Comparer c = new Comparer(w, h, boxes, 5, 0.2f, true, true);
+            c.setMask(new MotionMask(boxes).toggle(0, 0));
+
+            int steps = 1000;
+            for (int i = 0; i < steps; i++) {
+                runFrame(c, reporter, frames, i);
+            }
+
+            // the runtime occasionally allocates on this thread itself, e.g. while compiling, so
+            // the best of a few rounds is taken; an allocation per frame shows up in every round
+            long allocated = Long.MAX_VALUE;
+            for (int round = 0; round < 3; round++) {
+                long before = threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+                for (int i = 0; i < steps; i++) {
+                    runFrame(c, reporter, frames, i);
+                }
+                allocated = Math.min(allocated,
+                        threadBean.getThreadAllocatedBytes(Thread.currentThread().getId()) - before);
+            }
+
+            // allow for a constant overhead of the measurement itself
+            assertEquals("bytes allocated per frame with " + boxes + " boxes", 0, allocated / steps);
+        }
+        assertTrue(drawn[0] > 0);
+    }
+
+    // one frame as processed by the detector, reporter and visualizer
+    private static void runFrame(Comparer c, MotionReporter reporter, LumaData[] frames, int i) {
+        c.isDifferent(frames[i % frames.length], frames[(i + 1) % frames.length]);
+
+        MotionBoxes differing = c.update(frames[i % frames.length]);
+        if (differing != null && !differing.isEmpty()) {
+            reporter.motionDetected(differing);
+        } else {
+            reporter.noMotion();
+        }
+    }
+
+    private static byte[] randomFrame(Random r, int w, int h) {
+        byte[] frame = new byte[w * h];
+        r.nextBytes(frame);
+        return frame;
+    }
+
+    // the box average computed pixel by pixel instead of from the summed-area table
+    private static int pixelWalkAverage(byte[] data, int width, int height, int boxes, int xBox, int yBox) {
+        float xPixelsPerBox = width / (float) boxes;
+        float yPixelsPerBox = height / (float) boxes;
+
+        int startX = (int) (xBox * xPixelsPerBox);
+        int endX = xBox == (boxes - 1) ? width - 1 : (int) ((xBox + 1) * xPixelsPerBox) - 1;
+        int startY = (int) (yBox * yPixelsPerBox);
+        int endY = yBox == (boxes - 1) ? height - 1 : (int) ((yBox + 1) * yPixelsPerBox) - 1;
+
+        int yPix = endY - startY + 1;
+        int xPix = endX - startX + 1;
+
+        int i = 0;
+        int idx = startY * width + startX;
+        for (int y = startY; y <= endY; y++) {
+            for (int x = 0; x < xPix; x++) {
+                i += data[idx++] & 0xff;
+            }
+            idx += width - xPix;
+        }
+
+        return i / (xPix * yPix);
+    }
+
+    private static boolean pixelWalkDarker(byte[] data, int minLuma) {
+        int lumaSum = 0;
+        for (byte b : data) {
+            lumaSum += b & 0xff;
+        }
+        return lumaSum < minLuma;
+    }
+}
@@ -0,0 +1,86 @@
+package de.vier_bier.habpanelviewer.reporting.motion;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+public class FramePoolTest {
+    private static final FramePool.Allocator<int[]> ALLOCATOR = new FramePool.Allocator<int[]>() {
+        @Override
+        public int[] allocate(int size) {
+            return new int[size];
+        }
+
+        @Override
+        public int sizeOf(int[] buffer) {
+            return buffer.length;
+        }
+    };
+
+    @Test
+    public void testReuseAndCapacity() {
+        FramePool<int[]> pool = new FramePool<>("test", 2, ALLOCATOR);
+
+        int[] b1 = pool.acquire(10);
+        int[] b2 = pool.acquire(10);
+        int[] b3 = pool.acquire(10);
+        assertEquals(3, pool.getMisses());
+        assertEquals(3, pool.getInUse());
+
+        pool.release(b1);
+        pool.release(b2);
+        pool.release(b3);
+        assertEquals(1, pool.getDiscarded());
+        assertEquals(0, pool.getInUse());
+
+        int[] reused = pool.acquire(10);
+        assertEquals(1, pool.getHits());
+        assertSame(b1, reused);
+    }
+
+    @Test
+    public void testSizeChange() {
+        FramePool<int[]> pool = new FramePool<>("test", 2, ALLOCATOR);
+        pool.release(pool.acquire(10));
+
+        int[] b = pool.acquire(20);
+        assertEquals(20, b.length);
+        assertEquals(0, pool.getHits());
+        assertEquals(2, pool.getMisses());
+        assertEquals(1, pool.getDiscarded());
+    }
+
+    @Test
+    public void testConcurrentAcquireRelease() throws InterruptedException {
+        final FramePool<int[]> pool = new FramePool<>("test", 4, ALLOCATOR);
+        final AtomicBoolean shared = new AtomicBoolean();
+        final int threads = 4;
+        final CountDownLatch done = new CountDownLatch(threads);
+
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                for (int i = 0; i < 20000; i++) {
+                    int[] b = pool.acquire(4);
+                    // a buffer must never be handed out twice at the same time
+                    if (b[0] != 0) {
+                        shared.set(true);
+                    }
+                    b[0] = 1;
+                    b[0] = 0;
+                    pool.release(b);
+                }
+                done.countDown();
+            }).start();
+        }
+
+        done.await();
+        assertFalse(shared.get());
+        assertEquals(0, pool.getInUse());
+        assertEquals(threads * 20000, pool.getHits() + pool.getMisses());
+    }
+}
@@ -0,0 +1,119 @@
+package de.vier_bier.habpanelviewer.reporting.motion;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LumaReaderTest {
+    @Test
+    public void testPaddedStrides() {
+        int w = 64;
+        int h = 48;
+        byte[] tight = new byte[w * h];
+        new Random(1).nextBytes(tight);
+
+        // 2 bytes per pixel and 10 bytes of row padding, filled with garbage
+        int pixelStride = 2;
+        int rowStride = w * pixelStride + 10;
+        byte[] padded = new byte[rowStride * h];
+        new Random(2).nextBytes(padded);
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                padded[y * rowStride + x * pixelStride] = tight[y * w + x];
+            }
+        }
+
+        LumaData expected = new LumaReader(w, h, w, h).read(ByteBuffer.wrap(tight), w, 1);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(padded.length);
+        buffer.put(padded).rewind();
+        LumaData actual = new LumaReader(w, h, w, h).read(buffer, rowStride, pixelStride);
+
+        assertEquals(0, buffer.position());
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                assertEquals(expected.getSum(0, 0, x, y), actual.getSum(0, 0, x, y));
+            }
+        }
+    }
+
+    @Test
+    public void testDownscale() {
+        int w = 640;
+        int h = 480;
+        byte[] frame = new byte[w * h];
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                frame[y * w + x] = (byte) ((x / 4 + y / 4) % 200);
+            }
+        }
+
+        LumaReader reader = new LumaReader(w, h, 160, 120);
+        LumaData scaled = reader.read(ByteBuffer.wrap(frame), w, 1);
+
+        assertEquals(160, scaled.getWidth());
+        assertEquals(120, scaled.getHeight());
+        for (int y = 0; y < 120; y++) {
+            for (int x = 0; x < 160; x++) {
+                assertEquals((x + y) % 200, scaled.getSum(x, y, x, y) & 0xff);
+            }
+        }
+    }
+
+    @Test
+    public void testDownscaledDetectionEquivalent() {
+        int w = 640;
+        int h = 480;
+        Random r = new Random(3);
+
+        byte[] frame1 = new byte[w * h];
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                frame1[y * w + x] = (byte) (60 + (x + y) / 20 + r.nextInt(8));
+            }
+        }
+        byte[] frame2 = frame1.clone();
+        for (int y = 100; y < 260; y++) {
+            for (int x = 200; x < 330; x++) {
+                frame2[y * w + x] = (byte) 10;
+            }
+        }
+
+        LumaReader full = new LumaReader(w, h, w, h);
+        LumaReader scaled = new LumaReader(w, h, 160, 120);
+        LumaData full1 = full.read(ByteBuffer.wrap(frame1), w, 1);
+        LumaData full2 = full.read(ByteBuffer.wrap(frame2), w, 1);
+        LumaData scaled1 = scaled.read(ByteBuffer.wrap(frame1), w, 1);
+        LumaData scaled2 = scaled.read(ByteBuffer.wrap(frame2), w, 1);
+
+        int boxes = 20;
+        Comparer fullComparer = new Comparer(w, h, boxes, 20);
+        Comparer scaledComparer = new Comparer(160, 120, boxes, 20);
+        for (int y = 0; y < boxes; y++) {
+            for (int x = 0; x < boxes; x++) {
+                assertTrue(Math.abs(fullComparer.calcAverage(full1, x, y) - scaledComparer.calcAverage(scaled1, x, y)) <= 1);
+                assertEquals(fullComparer.isDifferent(full1, full2, x, y), scaledComparer.isDifferent(scaled1, scaled2, x, y));
+            }
+        }
+    }
+
+    @Test
+    public void testBlackLevelMatchesExtractLuma() {
+        int w = 64;
+        int h = 48;
+        byte[] frame = new byte[w * h];
+        new Random(4).nextBytes(frame);
+
+        LumaData expected = ReferenceLuma.extractLuma(frame, w, h);
+        LumaData actual = new LumaReader(w, h, w, h, true).read(ByteBuffer.wrap(frame), w, 1);
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                assertEquals(expected.getSum(0, 0, x, y), actual.getSum(0, 0, x, y));
+            }
+        }
+        expected.release();
+    }
+}
@@ -0,0 +1,39 @@
+package de.vier_bier.habpanelviewer.reporting.motion;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MotionBoxesTest {
+    @Test
+    public void testSetAndIterate() {
+        MotionBoxes boxes = new MotionBoxes(50);
+        assertTrue(boxes.isEmpty());
+        assertEquals(-1, boxes.nextSetBox(0));
+
+        // crosses the boundaries of the first and last word
+        int[][] set = {{0, 0}, {14, 1}, {13, 1}, {20, 3}, {49, 49}};
+        for (int[] p : set) {
+            boxes.set(p[0], p[1]);
+        }
+
+        assertFalse(boxes.isEmpty());
+        assertEquals(set.length, boxes.getCount());
+        assertTrue(boxes.isSet(13, 1));
+        assertFalse(boxes.isSet(1, 13));
+
+        int[] expected = {0, 63, 64, 170, 2499};
+        int n = 0;
+        for (int i = boxes.nextSetBox(0); i >= 0; i = boxes.nextSetBox(i + 1)) {
+            assertEquals(expected[n++], i);
+        }
+        assertEquals(expected.length, n);
+        assertEquals(-1, boxes.nextSetBox(50 * 50));
+
+        boxes.clear();
+        assertTrue(boxes.isEmpty());
+        assertEquals(0, boxes.getCount());
+    }
+}
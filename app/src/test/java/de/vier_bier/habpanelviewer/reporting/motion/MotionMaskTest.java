@@ -0,0 +1,59 @@
+package de.vier_bier.habpanelviewer.reporting.motion;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MotionMaskTest {
+    @Test
+    public void testToggleCreatesCopy() {
+        MotionMask empty = new MotionMask(20);
+        MotionMask mask = empty.toggle(3, 5);
+
+        assertTrue(empty.isEmpty());
+        assertTrue(mask.isExcluded(3, 5));
+        assertFalse(mask.isExcluded(5, 3));
+        assertTrue(mask.toggle(3, 5).isEmpty());
+    }
+
+    @Test
+    public void testStringRoundTrip() {
+        MotionMask mask = new MotionMask(50).toggle(0, 0).toggle(49, 49).toggle(31, 17);
+        MotionMask parsed = MotionMask.fromString(mask.toString(), 20);
+
+        assertEquals(50, parsed.getBoxes());
+        assertEquals(mask.toString(), parsed.toString());
+        assertTrue(parsed.isExcluded(0, 0));
+        assertTrue(parsed.isExcluded(49, 49));
+        assertTrue(parsed.isExcluded(31, 17));
+        assertFalse(parsed.isExcluded(17, 31));
+    }
+
+    @Test
+    public void testInvalidStringGivesEmptyMask() {
+        for (String s : new String[]{null, "", "abc", "20", "x:1f", "20:zz", "-1:1"}) {
+            MotionMask mask = MotionMask.fromString(s, 20);
+
+            assertEquals(20, mask.getBoxes());
+            assertTrue(mask.isEmpty());
+        }
+    }
+
+    @Test
+    public void testRescale() {
+        // exclude the left half
+        MotionMask mask = new MotionMask(2).toggle(0, 0).toggle(0, 1);
+        MotionMask scaled = mask.rescale(10);
+
+        assertEquals(10, scaled.getBoxes());
+        for (int y = 0; y < 10; y++) {
+            for (int x = 0; x < 10; x++) {
+                assertEquals(x < 5, scaled.isExcluded(x, y));
+            }
+        }
+
+        assertEquals(mask.toString(), scaled.rescale(2).toString());
+    }
+}
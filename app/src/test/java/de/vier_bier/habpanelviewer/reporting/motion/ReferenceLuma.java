@@ -0,0 +1,55 @@
+package de.vier_bier.habpanelviewer.reporting.motion;
+
+import java.util.Arrays;
+
+/**
+ * The luma extraction as done before camera images were read with a LumaReader, kept to check
+ * the reader and the comparer against.
+ */
+final class ReferenceLuma {
+    private ReferenceLuma() {
+    }
+
+    /**
+     * Subtracts the video black level of 16 from every luma value, clamped at 0.
+     */
+    static byte[] extract(byte[] data, int width, int height) {
+        byte[] luma = new byte[width * height];
+
+        for (int j = 0, yp = 0; j < height; j++) {
+            for (int i = 0; i < width; i++, yp++) {
+                int y = (0xff & (data[yp])) - 16;
+                if (y < 0) y = 0;
+                luma[yp] = (byte) y;
+            }
+        }
+
+        return luma;
+    }
+
+    static LumaData extractLuma(byte[] data, int width, int height) {
+        return toLumaData(extract(data, width, height), width, height);
+    }
+
+    /**
+     * Computes the summed-area table of the given luma values.
+     */
+    static LumaData toLumaData(byte[] luma, int width, int height) {
+        int stride = width + 1;
+        int[] s = LumaData.getFromSumPool(stride * (height + 1));
+
+        // first row and column stay zero
+        Arrays.fill(s, 0, stride, 0);
+        for (int y = 0, idx = 0; y < height; y++) {
+            int rowSum = 0;
+            int row = (y + 1) * stride;
+            s[row] = 0;
+            for (int x = 1; x <= width; x++, idx++) {
+                rowSum += luma[idx] & 0xff;
+                s[row + x] = s[row - stride + x] + rowSum;
+            }
+        }
+
+        return new LumaData(s, width, height);
+    }
+}